@@ -11,50 +11,92 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.compiler.CompileContext;
 import com.intellij.openapi.compiler.CompileScope;
 import com.intellij.openapi.compiler.CompilerMessageCategory;
+import com.intellij.openapi.compiler.CompilerPaths;
+import com.intellij.openapi.compiler.IntermediateOutputCompiler;
 import com.intellij.openapi.compiler.TranslatingCompiler;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.projectRoots.ProjectJdkTable;
 import com.intellij.openapi.projectRoots.Sdk;
-import com.intellij.openapi.roots.ExportableOrderEntry;
-import com.intellij.openapi.roots.LibraryOrderEntry;
 import com.intellij.openapi.roots.ModuleFileIndex;
-import com.intellij.openapi.roots.ModuleOrderEntry;
 import com.intellij.openapi.roots.ModuleRootManager;
-import com.intellij.openapi.roots.ModuleSourceOrderEntry;
-import com.intellij.openapi.roots.OrderEntry;
 import com.intellij.openapi.roots.OrderRootType;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
 import com.intellij.util.Chunk;
+import net.jangaroo.ide.idea.util.CompileStatistics;
+import net.jangaroo.ide.idea.util.CompilerLoader;
+import net.jangaroo.ide.idea.util.ContentHashes;
 import net.jangaroo.ide.idea.util.OutputSinkItem;
+import net.jangaroo.ide.idea.util.StagedOutput;
 import net.jangaroo.jooc.api.CompileLog;
 import net.jangaroo.jooc.config.DebugMode;
 import net.jangaroo.jooc.api.FilePosition;
+import net.jangaroo.jooc.api.Jooc;
 import net.jangaroo.jooc.config.JoocConfiguration;
 import net.jangaroo.utils.FileLocations;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * An abstraction of all three Jangaroo compilers.
  */
 public abstract class AbstractCompiler implements TranslatingCompiler {
-  private static List<File> virtualToIoFiles(List<VirtualFile> virtualFiles) {
+  /**
+   * Set system property "jangaroo.idea.compileWithoutReadAction" to "true" to run the Jangaroo compilers without
+   * holding a read action, so that long compilations do not block write actions (and thus typing).
+   * Everything a compiler run depends on, including the content digests of its sources, is snapshot under a read
+   * action before the run, and modules are still prepared and compiled strictly one after the other, so that
+   * each preparation sees the results of all compilations before.
+   */
+  private static final boolean COMPILE_WITHOUT_READ_ACTION = Boolean.getBoolean("jangaroo.idea.compileWithoutReadAction");
+  /**
+   * Set system property "jangaroo.idea.parallelGeneration" to "true" to let several exmlc / propc instances
+   * generate the classes of one module concurrently.
+   */
+  private static final boolean PARALLEL_GENERATION = Boolean.getBoolean("jangaroo.idea.parallelGeneration");
+  /**
+   * Set system property "jangaroo.idea.writeGeneratedIfChanged" to "true" to let exmlc / propc generate into a
+   * staging directory and only overwrite those generated sources whose content changed, so that identical
+   * generated sources keep their time stamp and do not cause any recompilation.
+   */
+  private static final boolean WRITE_GENERATED_IF_CHANGED = Boolean.getBoolean("jangaroo.idea.writeGeneratedIfChanged");
+  /**
+   * Set system property "jangaroo.idea.pipelinedGeneration" to "true" to hand the ActionScript sources generated
+   * by exmlc / propc directly to the jooc run of the same make, instead of waiting for IDEA to pick them up from
+   * the VFS. Other generated files (e.g. XSDs) are then refreshed asynchronously. Generated ActionScript sources
+   * are still refreshed synchronously, so that IDEA also compiles them if the jooc run of the module that
+   * consumes them is not scheduled in this make; jooc skips sources it has already compiled through the pipeline.
+   */
+  private static final boolean PIPELINED_GENERATION = Boolean.getBoolean("jangaroo.idea.pipelinedGeneration");
+  private static final Key<Map<String, Set<File>>> PIPELINED_SOURCES = Key.create("jangaroo.pipelinedSources");
+
+  protected static List<File> virtualToIoFiles(List<VirtualFile> virtualFiles) {
     List<File> ioFiles = new ArrayList<File>(virtualFiles.size());
     for (VirtualFile virtualSourceFile : virtualFiles) {
       ioFiles.add(VfsUtil.virtualToIoFile(virtualSourceFile));
@@ -70,6 +112,50 @@ public abstract class AbstractCompiler implements TranslatingCompiler {
     getLog().debug("AbstractCompiler constructor");
   }
 
+  /**
+   * A file in IDEA's compiler system directory to keep compiler state of the given module between makes.
+   */
+  protected static File getCacheFile(Module module, String name) {
+    File cacheDirectory = new File(CompilerPaths.getCompilerSystemDirectory(module.getProject()), "jangaroo");
+    return new File(cacheDirectory, module.getName() + "." + name);
+  }
+
+  /**
+   * The staging output for the sources this compiler generates into the given output directory,
+   * or null if generated sources are written directly.
+   */
+  protected @Nullable StagedOutput createStagedOutput(Module module, boolean forTests, File outputDirectory) {
+    return WRITE_GENERATED_IF_CHANGED ? new StagedOutput(
+      getCacheFile(module, getClass().getSimpleName() + (forTests ? ".test-staging" : ".staging")), outputDirectory)
+      : null;
+  }
+
+  /**
+   * Add the given generated file to the output sink item, as output of the given source file, or only to be
+   * refreshed if the source file is null. When generated into a staging output, the file is only copied to its
+   * real location if its content changed, and unchanged files are not refreshed.
+   * @return the real location of the generated file
+   */
+  protected static File addGeneratedFile(OutputSinkItem outputSinkItem, @Nullable StagedOutput stagedOutput,
+                                         @Nullable VirtualFile sourceFile, File generatedFile) throws IOException {
+    File outputFile = generatedFile;
+    boolean changed = true;
+    if (stagedOutput != null) {
+      outputFile = stagedOutput.getOutputFile(generatedFile);
+      changed = stagedOutput.publish(generatedFile);
+    }
+    if (sourceFile == null) {
+      if (changed) {
+        outputSinkItem.addFileToRefresh(outputFile);
+      }
+    } else if (changed) {
+      outputSinkItem.addOutputItem(sourceFile, outputFile);
+    } else {
+      outputSinkItem.addUnchangedOutputItem(sourceFile, outputFile);
+    }
+    return outputFile;
+  }
+
   private static @NotNull VirtualFile getOrCreateVirtualFile(@NotNull final String path) throws IOException {
     LocalFileSystem localFileSystem = LocalFileSystem.getInstance();
     VirtualFile virtualFile = localFileSystem.findFileByPath(path);
@@ -85,6 +171,17 @@ public abstract class AbstractCompiler implements TranslatingCompiler {
     return virtualFile;
   }
 
+  /**
+   * Look up the given file in the VFS. As compilers may run without holding a read action, take a short one.
+   */
+  protected static @Nullable VirtualFile findFileByIoFile(final File file) {
+    return ApplicationManager.getApplication().runReadAction(new Computable<VirtualFile>() {
+      public VirtualFile compute() {
+        return LocalFileSystem.getInstance().findFileByIoFile(file);
+      }
+    });
+  }
+
   public static List<String> getJarFileNames(String jangarooSdkName) {
     Sdk jangarooSdk = ProjectJdkTable.getInstance().findJdk(jangarooSdkName, "");
     if (jangarooSdk == null) {
@@ -128,49 +225,417 @@ public abstract class AbstractCompiler implements TranslatingCompiler {
       && (module == null || FacetManager.getInstance(module).getFacetByType(getFacetType()) != null);
   }
 
-  private static List<VirtualFile> filterTestSources(Module module, List<VirtualFile> files, boolean forTests) {
+  /**
+   * Split the given files into main and test sources in a single pass over the module's file index.
+   */
+  private static void partitionTestSources(Module module, List<VirtualFile> files, List<VirtualFile> mainFiles, List<VirtualFile> testFiles) {
     ModuleFileIndex moduleFileIndex = ModuleRootManager.getInstance(module).getFileIndex();
-    ArrayList<VirtualFile> result = new ArrayList<VirtualFile>();
     for (VirtualFile file : files) {
-      if (moduleFileIndex.isInTestSourceContent(file) == forTests) {
-        result.add(file);
-      }
+      (moduleFileIndex.isInTestSourceContent(file) ? testFiles : mainFiles).add(file);
     }
-    return result;
   }
 
   public void compile(final CompileContext context, Chunk<Module> moduleChunk, final VirtualFile[] files, final OutputSink outputSink) {
     if (!validateConfiguration(context)) {
       return;
     }
+    final Map<Module, List<VirtualFile>> filesByModule = new LinkedHashMap<Module, List<VirtualFile>>(CompilerUtil.buildModuleToFilesMap(context, files));
+    // modules whose only changes are not reported as dirty files, e.g. deleted sources:
+    for (Module module : moduleChunk.getNodes()) {
+      if (!filesByModule.containsKey(module) && hasChangesBesidesFiles(context, module)) {
+        filesByModule.put(module, new ArrayList<VirtualFile>());
+      }
+    }
     final Collection<OutputSinkItem> outputs = new ArrayList<OutputSinkItem>();
-    final Map<Module, List<VirtualFile>> filesByModule = CompilerUtil.buildModuleToFilesMap(context, files);
-
-    ApplicationManager.getApplication().runReadAction(new Runnable() {
+    Runnable compileModules = new Runnable() {
 
       public void run() {
         for (Map.Entry<Module, List<VirtualFile>> filesOfModuleEntry : filesByModule.entrySet()) {
-          Module module = filesOfModuleEntry.getKey();
-          List<VirtualFile> files = filesOfModuleEntry.getValue();
-          compile(context, module, files, false, outputs);
-          compile(context, module, files, true, outputs);
+          compileModule(context, filesOfModuleEntry.getKey(), filesOfModuleEntry.getValue(), outputs);
         }
       }
 
-    });
+    };
+    if (COMPILE_WITHOUT_READ_ACTION) {
+      compileModules.run(); // each module takes its own short read actions
+    } else {
+      ApplicationManager.getApplication().runReadAction(compileModules);
+    }
+    CompileStatistics compileStatistics = CompileStatistics.getInstance(context);
+    long refreshStart = System.nanoTime();
+    boolean asynchronousRefresh = PIPELINED_GENERATION && this instanceof IntermediateOutputCompiler;
     for (OutputSinkItem outputSinkItem : outputs) {
-      outputSinkItem.addTo(outputSink);
+      outputSinkItem.addTo(outputSink, asynchronousRefresh);
+    }
+    compileStatistics.getTimes(getDescription(), null).add(CompileStatistics.Phase.REFRESH, refreshStart);
+  }
+
+  /**
+   * The phase times of this compiler for the given module in the current make.
+   */
+  protected CompileStatistics.Times getCompileTimes(CompileContext context, Module module) {
+    return CompileStatistics.getInstance(context).getTimes(getDescription(), module.getName());
+  }
+
+  /**
+   * Whether this compiler compiles the sources generated by other compilers in pipelined mode.
+   */
+  protected boolean consumesPipelinedSources() {
+    return false;
+  }
+
+  /**
+   * Whether the given module has to be compiled even if none of its files is dirty. By default, this is the case
+   * for a compiler that consumes generated sources handed over in pipelined mode.
+   */
+  protected boolean hasChangesBesidesFiles(CompileContext context, Module module) {
+    return PIPELINED_GENERATION && consumesPipelinedSources() && hasPipelinedSources(context, module);
+  }
+
+  /**
+   * In pipelined mode, hand all ActionScript files that have been (re-)generated with changed content to the
+   * jooc run of the same make.
+   */
+  protected static void pipelineGeneratedSources(CompileContext context, Module module, boolean forTests, OutputSinkItem outputSinkItem) {
+    if (PIPELINED_GENERATION) {
+      Map<String, Set<File>> pipelinedSources = getPipelinedSources(context);
+      synchronized (pipelinedSources) {
+        String key = getPipelineKey(module, forTests);
+        Set<File> files = pipelinedSources.get(key);
+        if (files == null) {
+          files = new LinkedHashSet<File>();
+          pipelinedSources.put(key, files);
+        }
+        for (File file : outputSinkItem.getFilesToRefresh()) {
+          if (file.getName().endsWith(Jooc.AS_SUFFIX)) {
+            files.add(file);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Remove and return all ActionScript files generated for the given module in this make, which have not been
+   * compiled yet.
+   */
+  protected static Set<File> takePipelinedSources(CompileContext context, Module module, boolean forTests) {
+    Map<String, Set<File>> pipelinedSources = getPipelinedSources(context);
+    synchronized (pipelinedSources) {
+      Set<File> files = pipelinedSources.remove(getPipelineKey(module, forTests));
+      return files == null ? Collections.<File>emptySet() : files;
+    }
+  }
+
+  private static boolean hasPipelinedSources(CompileContext context, Module module) {
+    Map<String, Set<File>> pipelinedSources = getPipelinedSources(context);
+    synchronized (pipelinedSources) {
+      return pipelinedSources.containsKey(getPipelineKey(module, false))
+        || pipelinedSources.containsKey(getPipelineKey(module, true));
+    }
+  }
+
+  private static Map<String, Set<File>> getPipelinedSources(CompileContext context) {
+    synchronized (PIPELINED_SOURCES) {
+      Map<String, Set<File>> pipelinedSources = context.getUserData(PIPELINED_SOURCES);
+      if (pipelinedSources == null) {
+        pipelinedSources = new HashMap<String, Set<File>>();
+        context.putUserData(PIPELINED_SOURCES, pipelinedSources);
+      }
+      return pipelinedSources;
+    }
+  }
+
+  private static String getPipelineKey(Module module, boolean forTests) {
+    return module.getName() + (forTests ? ":test" : ":main");
+  }
+
+  /**
+   * How many workers should generate the classes of the given number of source files of one module.
+   */
+  protected static int getGenerationWorkerCount(int fileCount) {
+    return PARALLEL_GENERATION ? Math.max(1, Math.min(fileCount, Runtime.getRuntime().availableProcessors())) : 1;
+  }
+
+  /**
+   * Run the given tasks on a bounded worker pool (or directly, if there is only one) and wait until all are done.
+   */
+  protected static void invokeAll(List<Callable<Void>> tasks) {
+    if (tasks.size() == 1) {
+      try {
+        tasks.get(0).call();
+        return;
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    ExecutorService workers = Executors.newFixedThreadPool(tasks.size());
+    try {
+      for (Future<Void> result : workers.invokeAll(tasks)) {
+        result.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessCanceledException();
+    } catch (ExecutionException e) {
+      throw rethrow(e);
+    } finally {
+      workers.shutdownNow();
+    }
+  }
+
+  private static RuntimeException rethrow(ExecutionException e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException)cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error)cause;
+    }
+    throw new IllegalStateException(cause);
+  }
+
+  /**
+   * Compile the main and then the test sources of the given module, skipping a pass without any sources.
+   * The two passes are separate compiler runs, as their class path, source path and output directory differ;
+   * each may reuse a warm compiler instance of an earlier make with the same configuration, but the test pass
+   * cannot reuse the declarations of the main pass. Each compilation is prepared under a short read action. The actual compiler run either happens inside that read action, too, or, if
+   * {@link #COMPILE_WITHOUT_READ_ACTION} is set, without holding any lock, working on the configuration
+   * snapshot taken by {@link #prepareCompile}.
+   */
+  private void compileModule(final CompileContext context, final Module module, final List<VirtualFile> files, final Collection<OutputSinkItem> outputs) {
+    final List<VirtualFile> mainFiles = new ArrayList<VirtualFile>();
+    final List<VirtualFile> testFiles = new ArrayList<VirtualFile>();
+    ApplicationManager.getApplication().runReadAction(new Runnable() {
+      public void run() {
+        partitionTestSources(module, files, mainFiles, testFiles);
+      }
+    });
+    for (final boolean forTests : new boolean[]{false, true}) {
+      final List<VirtualFile> sourceFiles = forTests ? testFiles : mainFiles;
+      if (COMPILE_WITHOUT_READ_ACTION) {
+        CompileJob compileJob = ApplicationManager.getApplication().runReadAction(new Computable<CompileJob>() {
+          public CompileJob compute() {
+            return prepareModuleCompile(context, module, sourceFiles, forTests, outputs);
+          }
+        });
+        if (compileJob != null) {
+          compileJob.run();
+        }
+      } else {
+        ApplicationManager.getApplication().runReadAction(new Runnable() {
+          public void run() {
+            CompileJob compileJob = prepareModuleCompile(context, module, sourceFiles, forTests, outputs);
+            if (compileJob != null) {
+              compileJob.run();
+            }
+          }
+        });
+      }
+    }
+  }
+
+  private CompileJob prepareModuleCompile(CompileContext context, Module module, List<VirtualFile> sourceFiles, boolean forTests, final Collection<OutputSinkItem> outputs) {
+    final CompileStatistics.Times compileTimes = getCompileTimes(context, module);
+    long configurationStart = System.nanoTime();
+    final File contentHashesFile = getCacheFile(module, getClass().getSimpleName() + (forTests ? ".test-hashes" : ".hashes"));
+    final ContentHashes contentHashes = ContentHashes.load(contentHashesFile);
+    final String configurationFingerprint = getConfigurationFingerprint(module, forTests);
+    List<VirtualFile> changedFiles = configurationFingerprint == null ? sourceFiles
+      : skipUnchangedFiles(sourceFiles, contentHashes, configurationFingerprint, outputs);
+    final CompileJob compileJob = prepareCompile(context, module, changedFiles, forTests);
+    if (compileJob == null) {
+      compileTimes.add(CompileStatistics.Phase.CONFIGURATION, configurationStart);
+      return null;
+    }
+    // digest the sources now, as they may be edited while the compiler runs without a read action:
+    final Map<File, String> sourceDigests = configurationFingerprint == null ? null
+      : ContentHashes.digest(compileJob.getSourceFiles());
+    compileTimes.add(CompileStatistics.Phase.CONFIGURATION, configurationStart);
+    return new CompileJob(compileJob.getSourceFiles()) {
+      public OutputSinkItem run() {
+        OutputSinkItem outputSinkItem = compileJob.run();
+        if (outputSinkItem != null) {
+          outputs.add(outputSinkItem);
+          if (configurationFingerprint != null) {
+            long outputMappingStart = System.nanoTime();
+            updateContentHashes(outputSinkItem, sourceDigests, contentHashes, configurationFingerprint, contentHashesFile);
+            compileTimes.add(CompileStatistics.Phase.OUTPUT_MAPPING, outputMappingStart);
+          }
+        }
+        return outputSinkItem;
+      }
+    };
+  }
+
+  /**
+   * Source files that are only "dirty" because their time stamp changed, but whose content, compiler
+   * configuration and output are the same as after their last compilation, are not compiled again.
+   * Instead, their existing output is re-registered.
+   * @return the source files that really have to be compiled
+   */
+  private static List<VirtualFile> skipUnchangedFiles(List<VirtualFile> sourceFiles, ContentHashes contentHashes,
+                                                      String configurationFingerprint, Collection<OutputSinkItem> outputs) {
+    List<VirtualFile> changedFiles = new ArrayList<VirtualFile>(sourceFiles.size());
+    Map<String, OutputSinkItem> unchangedOutputsByRoot = new LinkedHashMap<String, OutputSinkItem>();
+    for (VirtualFile sourceFile : sourceFiles) {
+      ContentHashes.Entry unchanged;
+      try {
+        unchanged = contentHashes.findUnchanged(VfsUtil.virtualToIoFile(sourceFile), configurationFingerprint);
+      } catch (IOException e) {
+        unchanged = null;
+      }
+      if (unchanged == null) {
+        changedFiles.add(sourceFile);
+      } else {
+        OutputSinkItem unchangedOutputs = unchangedOutputsByRoot.get(unchanged.getOutputRootPath());
+        if (unchangedOutputs == null) {
+          unchangedOutputs = new OutputSinkItem(unchanged.getOutputRootPath());
+          unchangedOutputsByRoot.put(unchanged.getOutputRootPath(), unchangedOutputs);
+        }
+        for (String outputPath : unchanged.getOutputPaths()) {
+          unchangedOutputs.addOutputItem(sourceFile, new File(outputPath));
+        }
+      }
+    }
+    if (changedFiles.size() < sourceFiles.size()) {
+      getLog().info("skipping " + (sourceFiles.size() - changedFiles.size()) + " files with unchanged content");
+    }
+    outputs.addAll(unchangedOutputsByRoot.values());
+    return changedFiles;
+  }
+
+  private static void updateContentHashes(OutputSinkItem outputSinkItem, Map<File, String> sourceDigests,
+                                          ContentHashes contentHashes, String configurationFingerprint,
+                                          File contentHashesFile) {
+    Map<VirtualFile, List<File>> outputFilesBySourceFile = new LinkedHashMap<VirtualFile, List<File>>();
+    for (OutputItem outputItem : outputSinkItem.getOutputItems()) {
+      List<File> outputFiles = outputFilesBySourceFile.get(outputItem.getSourceFile());
+      if (outputFiles == null) {
+        outputFiles = new ArrayList<File>();
+        outputFilesBySourceFile.put(outputItem.getSourceFile(), outputFiles);
+      }
+      outputFiles.add(new File(outputItem.getOutputPath()));
+    }
+    try {
+      for (Map.Entry<VirtualFile, List<File>> sourceAndOutputFiles : outputFilesBySourceFile.entrySet()) {
+        updateContentHash(contentHashes, VfsUtil.virtualToIoFile(sourceAndOutputFiles.getKey()), sourceDigests,
+          configurationFingerprint, outputSinkItem.getOutputRootPath(), sourceAndOutputFiles.getValue());
+      }
+      for (Map.Entry<File, List<File>> sourceAndOutputFiles : outputSinkItem.getPipelinedOutputFiles().entrySet()) {
+        updateContentHash(contentHashes, sourceAndOutputFiles.getKey(), sourceDigests,
+          configurationFingerprint, outputSinkItem.getOutputRootPath(), sourceAndOutputFiles.getValue());
+      }
+      for (VirtualFile fileToRecompile : outputSinkItem.getFilesToRecompile()) {
+        contentHashes.remove(VfsUtil.virtualToIoFile(fileToRecompile));
+      }
+      contentHashes.save(contentHashesFile);
+    } catch (IOException e) {
+      getLog().warn("Jangaroo: content hashes could not be updated, deleting " + contentHashesFile.getPath(), e);
+      //noinspection ResultOfMethodCallIgnored
+      contentHashesFile.delete();
+    }
+  }
+
+  private static void updateContentHash(ContentHashes contentHashes, File sourceFile, Map<File, String> sourceDigests,
+                                        String configurationFingerprint, String outputRootPath,
+                                        List<File> outputFiles) throws IOException {
+    String sourceDigest = sourceDigests.get(sourceFile);
+    if (sourceDigest == null) {
+      contentHashes.remove(sourceFile); // content compiled is unknown, so do not skip it next time
+    } else {
+      contentHashes.update(sourceFile, sourceDigest, configurationFingerprint, outputRootPath, outputFiles);
+    }
+  }
+
+  /**
+   * Everything besides the source files that determines the output of this compiler for the given module,
+   * including the resolved class path and source path.
+   * Source files are only skipped if their last compilation used the same configuration fingerprint.
+   * @return the fingerprint, or null if the module has no valid configuration, which disables skipping
+   */
+  protected @Nullable String getConfigurationFingerprint(Module module, boolean forTests) {
+    JoocConfigurationBean joocConfigurationBean = getJoocConfigurationBean(module);
+    if (joocConfigurationBean == null || joocConfigurationBean.jangarooSdkName == null) {
+      return null;
+    }
+    StringBuilder fingerprint = new StringBuilder();
+    fingerprint.append(forTests)
+      .append(',').append(joocConfigurationBean.debugLevel)
+      .append(',').append(joocConfigurationBean.verbose)
+      .append(',').append(joocConfigurationBean.enableAssertions)
+      .append(',').append(joocConfigurationBean.allowDuplicateLocalVariables)
+      .append(',').append(joocConfigurationBean.publicApiViolationsMode)
+      .append(',').append(joocConfigurationBean.getOutputDirectory())
+      .append(',').append(joocConfigurationBean.getApiOutputDirectory())
+      .append(',').append(joocConfigurationBean.getTestOutputDirectory());
+    try {
+      fingerprint.append(',').append(CompilerLoader.getJarsFingerprint(getJarFileNames(joocConfigurationBean.jangarooSdkName)));
+    } catch (IllegalStateException e) {
+      return null; // SDK not found
+    } catch (FileNotFoundException e) {
+      return null; // SDK JAR not found
     }
+    ModuleFileLocationsCache.Paths paths = ModuleFileLocationsCache.getInstance(module.getProject()).getPaths(module, forTests);
+    fingerprint.append(",sourcepath=").append(paths.getSourcePath())
+      .append(",classpath=").append(getClassPathFingerprint(paths.getClassPath()));
+    return fingerprint.toString();
   }
 
-  private void compile(CompileContext context, Module module, List<VirtualFile> files, boolean forTests, Collection<OutputSinkItem> outputs) {
-    OutputSinkItem outputSinkItem = compile(context, module, filterTestSources(module, files, forTests), forTests);
-    if (outputSinkItem != null) {
-      outputs.add(outputSinkItem);
+  /**
+   * The given class path, including the content digest of each JAR, so that an updated library (e.g. a rebuilt
+   * snapshot with the same path) changes the fingerprint, too.
+   */
+  private static String getClassPathFingerprint(List<File> classPath) {
+    StringBuilder fingerprint = new StringBuilder();
+    for (File classPathEntry : classPath) {
+      String path = classPathEntry.getPath();
+      if (path.endsWith("!")) {
+        path = path.substring(0, path.length() - "!".length()); // root of a JAR library
+      }
+      if (new File(path).isFile()) {
+        try {
+          fingerprint.append(CompilerLoader.getJarsFingerprint(Collections.singletonList(path)));
+          continue;
+        } catch (FileNotFoundException e) {
+          // JAR vanished in the meantime: fall back to its path
+        }
+      }
+      fingerprint.append(path).append(File.pathSeparatorChar);
     }
+    return fingerprint.toString();
   }
 
-  protected abstract OutputSinkItem compile(CompileContext context, Module module, List<VirtualFile> files, boolean forTests);
+  /**
+   * The part of a compilation that does not access IDEA's project model, PSI or VFS, so that it can run
+   * without holding a read action.
+   */
+  protected abstract static class CompileJob {
+    private final Collection<File> sourceFiles;
+
+    /**
+     * @param sourceFiles all source files the job compiles
+     */
+    protected CompileJob(Collection<File> sourceFiles) {
+      this.sourceFiles = sourceFiles;
+    }
+
+    public Collection<File> getSourceFiles() {
+      return sourceFiles;
+    }
+
+    public abstract @Nullable OutputSinkItem run();
+  }
+
+  /**
+   * Take a snapshot of everything needed to compile the given files of the given module (facet
+   * configuration, class path and source path, SDK JARs, output directories).
+   * Called inside a read action.
+   * @return the job that runs the compiler on the snapshot, or null if there is nothing to compile
+   */
+  protected abstract @Nullable CompileJob prepareCompile(CompileContext context, Module module, List<VirtualFile> files, boolean forTests);
 
   protected boolean validateConfiguration(CompileContext context) {
     Module invalidModule = findInvalidModule(context.getCompileScope());
@@ -226,12 +691,10 @@ public abstract class AbstractCompiler implements TranslatingCompiler {
   }
 
   protected void updateFileLocations(FileLocations fileLocations, Module module, List<VirtualFile> virtualSourceFiles, boolean forTests) {
-    Collection<File> classPath = new LinkedHashSet<File>();
-    Collection<File> sourcePath = new LinkedHashSet<File>();
-    addToClassOrSourcePath(module, true, classPath, sourcePath, forTests);
-    fileLocations.setClassPath(new ArrayList<File>(classPath));
+    ModuleFileLocationsCache.Paths paths = ModuleFileLocationsCache.getInstance(module.getProject()).getPaths(module, forTests);
+    fileLocations.setClassPath(new ArrayList<File>(paths.getClassPath()));
     try {
-      fileLocations.setSourcePath(new ArrayList<File>(sourcePath));
+      fileLocations.setSourcePath(new ArrayList<File>(paths.getSourcePath()));
     } catch (IOException e) {
       getLog().error("while constructing Jangaroo source path", e);
     }
@@ -239,38 +702,6 @@ public abstract class AbstractCompiler implements TranslatingCompiler {
     fileLocations.setSourceFiles(sourceFiles);
   }
 
-  private void addToClassOrSourcePath(Module module, boolean sourceModule, Collection<File> classPath, Collection<File> sourcePath, boolean forTests) {
-    ModuleRootManager moduleRootManager = ModuleRootManager.getInstance(module);
-    for (OrderEntry orderEntry : moduleRootManager.getOrderEntries()) {
-      if (orderEntry instanceof ExportableOrderEntry) {
-        switch (((ExportableOrderEntry)orderEntry).getScope()) {
-          case RUNTIME:
-            continue;
-          case TEST:
-            if (!forTests) {
-              continue;
-            }
-          // PROVIDED, COMPILE: add to path!
-        }
-      }
-      if (orderEntry instanceof ModuleSourceOrderEntry) {
-        VirtualFile[] sourceRoots = ((ModuleSourceOrderEntry)orderEntry).getRootModel().getSourceRoots();
-        for (VirtualFile sourceRoot : sourceRoots) {
-          if (forTests || !moduleRootManager.getFileIndex().isInTestSourceContent(sourceRoot)) {
-            (sourceModule ? sourcePath : classPath).add(VfsUtil.virtualToIoFile(sourceRoot));
-          }
-        }
-      } else if (orderEntry instanceof LibraryOrderEntry) {
-        classPath.addAll(virtualToIoFiles(Arrays.asList(((LibraryOrderEntry)orderEntry).getRootFiles(OrderRootType.CLASSES))));
-      } else if (orderEntry instanceof ModuleOrderEntry) {
-        Module dependentModule = ((ModuleOrderEntry)orderEntry).getModule();
-        if (dependentModule != null) {
-          addToClassOrSourcePath(dependentModule, false, classPath, sourcePath, forTests);
-        }
-      }
-    }
-  }
-
   protected OutputSinkItem createGeneratedSourcesOutputSinkItem(CompileContext context, String generatedSourcesDirectory) {
     try {
       String generatedAs3RootDir = getOrCreateVirtualFile(generatedSourcesDirectory).getPath();
@@ -292,7 +723,7 @@ public abstract class AbstractCompiler implements TranslatingCompiler {
     }
 
     private VirtualFile addMessage(CompilerMessageCategory compilerMessageCategory, String msg, FilePosition position) {
-      VirtualFile file = LocalFileSystem.getInstance().findFileByPath(position.getFileName());
+      VirtualFile file = findFileByIoFile(new File(position.getFileName()));
       String fileUrl = file==null ? null : file.getUrl();
       compileContext.addMessage(compilerMessageCategory, msg, fileUrl, position.getLine(), position.getColumn()-1);
       return file;
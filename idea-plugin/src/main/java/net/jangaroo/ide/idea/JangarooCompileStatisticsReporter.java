@@ -0,0 +1,72 @@
+package net.jangaroo.ide.idea;
+
+import com.intellij.openapi.compiler.CompileContext;
+import com.intellij.openapi.compiler.CompileTask;
+import com.intellij.openapi.compiler.CompilerManager;
+import com.intellij.openapi.compiler.CompilerMessageCategory;
+import com.intellij.openapi.compiler.CompilerPaths;
+import com.intellij.openapi.components.AbstractProjectComponent;
+import com.intellij.openapi.project.Project;
+import net.jangaroo.ide.idea.util.CompileStatistics;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reports the phase times of all Jangaroo compilers once per make, after all compilers have run.
+ * Set system property "jangaroo.idea.compileStatistics" to "true" to show the times in the Messages view and
+ * write them as JSON to "jangaroo/compile-statistics.json" in IDEA's compiler system directory.
+ */
+public class JangarooCompileStatisticsReporter extends AbstractProjectComponent {
+
+  private static final boolean COMPILE_STATISTICS = Boolean.getBoolean("jangaroo.idea.compileStatistics");
+
+  public JangarooCompileStatisticsReporter(Project project) {
+    super(project);
+  }
+
+  @NotNull
+  @Override
+  public String getComponentName() {
+    return "JangarooCompileStatisticsReporter";
+  }
+
+  @Override
+  public void projectOpened() {
+    if (COMPILE_STATISTICS) {
+      CompilerManager.getInstance(myProject).addAfterTask(new CompileTask() {
+        public boolean execute(CompileContext context) {
+          report(context);
+          return true;
+        }
+      });
+    }
+  }
+
+  private static void report(CompileContext context) {
+    CompileStatistics compileStatistics = CompileStatistics.findInstance(context);
+    if (compileStatistics == null) {
+      return; // no Jangaroo compiler ran in this make
+    }
+    for (String compiler : compileStatistics.getCompilers()) {
+      for (String moduleName : compileStatistics.getModuleNames(compiler)) {
+        addSummary(context, compileStatistics.getSummary(compiler, moduleName));
+      }
+      addSummary(context, compileStatistics.getTotalSummary(compiler));
+    }
+    File reportFile = new File(new File(CompilerPaths.getCompilerSystemDirectory(context.getProject()), "jangaroo"),
+      "compile-statistics.json");
+    try {
+      compileStatistics.writeJson(reportFile);
+    } catch (IOException e) {
+      AbstractCompiler.getLog().warn("Jangaroo: compile statistics could not be written to " + reportFile.getPath(), e);
+    }
+  }
+
+  private static void addSummary(CompileContext context, String summary) {
+    if (summary != null) {
+      context.addMessage(CompilerMessageCategory.INFORMATION, summary, null, -1, -1);
+    }
+  }
+}
@@ -18,9 +18,14 @@ import com.intellij.facet.FacetTypeId;
 import com.intellij.openapi.compiler.CompileContext;
 import com.intellij.openapi.compiler.CompilerMessageCategory;
 import com.intellij.openapi.compiler.TranslatingCompiler;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.module.Module;
+import net.jangaroo.ide.idea.util.ApiFingerprints;
+import net.jangaroo.ide.idea.util.ClassDependencyGraph;
+import net.jangaroo.ide.idea.util.CompileStatistics;
 import net.jangaroo.ide.idea.util.CompilerLoader;
 import net.jangaroo.ide.idea.util.OutputSinkItem;
 import net.jangaroo.jooc.api.CompilationResult;
@@ -30,6 +35,7 @@ import net.jangaroo.jooc.config.JoocConfiguration;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.*;
 import java.io.File;
 
@@ -38,10 +44,20 @@ import java.io.File;
  */
 public class JangarooCompiler extends AbstractCompiler implements TranslatingCompiler {
 
-  public static CompilationResult runJooc(CompileContext context, String jangarooSdkName, JoocConfiguration configuration, CompileLog log) {
-    Jooc jooc;
+  private static final Key<Set<String>> API_CHANGED_CLASS_NAMES = Key.create("jangaroo.apiChangedClassNames");
+
+  /**
+   * Run a warm Jooc instance of the project's compiler service on the given configuration, and hand it back to the
+   * service afterwards, which resets it and keeps it for the next run with the same configuration fingerprint.
+   */
+  public static CompilationResult runJooc(CompileContext context, String jangarooSdkName, List<String> jarFileNames,
+                                          JoocConfiguration configuration, String configurationFingerprint,
+                                          CompileLog log, CompileStatistics.Times compileTimes) {
+    JangarooCompilerService compilerService = JangarooCompilerService.getInstance(context.getProject());
+    CompilerLoader.CompilerLease<Jooc> joocLease;
+    long classLoadingStart = System.nanoTime();
     try {
-      jooc = CompilerLoader.loadJooc(getJarFileNames(jangarooSdkName));
+      joocLease = compilerService.acquireJooc(jarFileNames, configurationFingerprint);
     } catch (FileNotFoundException e) {
       context.addMessage(CompilerMessageCategory.ERROR, e.getMessage(), null, -1, -1);
       return null;
@@ -50,10 +66,23 @@ public class JangarooCompiler extends AbstractCompiler implements TranslatingCom
         " not correctly set up or not compatible with this Jangaroo IDEA plugin: " + e.getMessage(),
         null, -1, -1);
       return null;
+    } finally {
+      compileTimes.add(CompileStatistics.Phase.CLASS_LOADING, classLoadingStart);
+    }
+    long runStart = System.nanoTime();
+    boolean completed = false;
+    try {
+      Jooc jooc = joocLease.getCompiler();
+      jooc.setConfig(configuration);
+      jooc.setLog(log);
+      CompilationResult result = jooc.run();
+      completed = true;
+      return result;
+    } finally {
+      // only an instance that completed its run is safe to be reused:
+      compilerService.releaseJooc(configurationFingerprint, joocLease, completed);
+      compileTimes.add(CompileStatistics.Phase.RUN, runStart);
     }
-    jooc.setConfig(configuration);
-    jooc.setLog(log);
-    return jooc.run();
   }
 
   @Override
@@ -63,55 +92,230 @@ public class JangarooCompiler extends AbstractCompiler implements TranslatingCom
   }
 
   @Override
-  protected OutputSinkItem compile(CompileContext context, Module module, final List<VirtualFile> files, boolean forTests) {
-    JoocConfiguration joocConfig = getJoocConfiguration(module, files, forTests);
+  protected CompileJob prepareCompile(final CompileContext context, final Module module, List<VirtualFile> changedFiles, final boolean forTests) {
+    final File dependencyGraphFile = getDependencyGraphFile(module, forTests);
+    final ClassDependencyGraph dependencyGraph = ClassDependencyGraph.load(dependencyGraphFile);
+    final Set<String> deletedClassNames = dependencyGraph.removeDeletedFiles();
+    // in pipelined mode, sources generated earlier in this make, which may not be known to the VFS yet:
+    final List<File> pipelinedFiles = new ArrayList<File>(takePipelinedSources(context, module, forTests));
+    pipelinedFiles.removeAll(virtualToIoFiles(changedFiles));
+    Set<String> changedClassNames = dependencyGraph.getClassNames(virtualToIoFiles(changedFiles));
+    changedClassNames.addAll(dependencyGraph.getClassNames(pipelinedFiles));
+    changedClassNames.addAll(deletedClassNames);
+    // classes compiled earlier in this make, e.g. in other modules, only affect this module if their API changed:
+    Set<String> apiChangedClassNames = getApiChangedClassNames(context);
+    synchronized (apiChangedClassNames) {
+      changedClassNames.addAll(apiChangedClassNames);
+    }
+    final List<VirtualFile> files = addDependentFiles(changedFiles, changedClassNames, dependencyGraph);
+    pipelinedFiles.removeAll(virtualToIoFiles(files));
+    if (files.isEmpty() && pipelinedFiles.isEmpty() && deletedClassNames.isEmpty()) {
+      return null; // e.g. a module without any (affected) test sources
+    }
+    final JoocConfiguration joocConfig = getJoocConfiguration(module, files, forTests);
+    if (joocConfig == null) {
+      return null;
+    }
+    if (!pipelinedFiles.isEmpty()) {
+      List<File> sourceFiles = new ArrayList<File>(joocConfig.getSourceFiles());
+      sourceFiles.addAll(pipelinedFiles);
+      joocConfig.setSourceFiles(sourceFiles);
+    }
+    final JoocConfigurationBean joocConfigurationBean = getJoocConfigurationBean(module);
+    final String configurationFingerprint = getConfigurationFingerprint(module, forTests);
+    final List<String> jarFileNames;
+    try {
+      jarFileNames = getJarFileNames(joocConfigurationBean.jangarooSdkName);
+    } catch (IllegalStateException e) {
+      context.addMessage(CompilerMessageCategory.ERROR, e.getMessage(), null, -1, -1);
+      return null;
+    }
+    return new CompileJob(joocConfig.getSourceFiles()) {
+      public OutputSinkItem run() {
+        return compile(context, module, files, pipelinedFiles, joocConfigurationBean, joocConfig, jarFileNames,
+          configurationFingerprint, dependencyGraph, dependencyGraphFile, deletedClassNames);
+      }
+    };
+  }
+
+  @Override
+  protected boolean consumesPipelinedSources() {
+    return true;
+  }
+
+  /**
+   * Classes that depend on deleted classes, or on classes whose API changed earlier in this make (e.g. in another
+   * module), have to be recompiled, even if no file of the module itself changed.
+   */
+  @Override
+  protected boolean hasChangesBesidesFiles(CompileContext context, Module module) {
+    if (super.hasChangesBesidesFiles(context, module)) {
+      return true;
+    }
+    Set<String> apiChangedClassNames = getApiChangedClassNames(context);
+    synchronized (apiChangedClassNames) {
+      apiChangedClassNames = new HashSet<String>(apiChangedClassNames);
+    }
+    for (boolean forTests : new boolean[]{false, true}) {
+      ClassDependencyGraph dependencyGraph = ClassDependencyGraph.load(getDependencyGraphFile(module, forTests));
+      if (dependencyGraph.hasDeletedFiles()
+        || !apiChangedClassNames.isEmpty() && !dependencyGraph.findDependentFiles(apiChangedClassNames).isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static File getDependencyGraphFile(Module module, boolean forTests) {
+    return getCacheFile(module, forTests ? "test-dependencies" : "dependencies");
+  }
+
+  private OutputSinkItem compile(CompileContext context, Module module, List<VirtualFile> files, List<File> pipelinedFiles,
+                                 JoocConfigurationBean joocConfigurationBean, JoocConfiguration joocConfig,
+                                 List<String> jarFileNames, String configurationFingerprint,
+                                 ClassDependencyGraph dependencyGraph,
+                                 File dependencyGraphFile, Set<String> deletedClassNames) {
     OutputSinkItem outputSinkItem = null;
-    if (joocConfig!=null) {
-      String outputDirectoryPath = joocConfig.getOutputDirectory().getPath();
-      try {
-        outputSinkItem = new OutputSinkItem(outputDirectoryPath);
-        IdeaCompileLog ideaCompileLog = new IdeaCompileLog(context);
-        getLog().info("running " + getDescription() + "...");
-        JoocConfigurationBean joocConfigurationBean = getJoocConfigurationBean(module);
-        CompilationResult result = runJooc(context, joocConfigurationBean.jangarooSdkName, joocConfig, ideaCompileLog);
-        if (result == null) {
-          return null;
-        }
-        Map<File, File> outputFileMap = result.getOutputFileMap();
-        for (final VirtualFile file : files) {
-          if (ideaCompileLog.hasErrors(file)) {
-            outputSinkItem.addFileToRecompile(file);
-          } else {
-            File ioFile = VfsUtil.virtualToIoFile(file);
-            File outputFile = outputFileMap.get(ioFile);
-            if (outputFile != null) {
-              outputSinkItem.addOutputItem(file, outputFile);
-              String fileUrl = file.getUrl();
-              if (joocConfigurationBean.showCompilerInfoMessages) {
-                context.addMessage(CompilerMessageCategory.INFORMATION, "as->js (" + outputFile.getPath() + ")", fileUrl, -1, -1);
-              }
-              getLog().info("as->js: " + fileUrl + " -> " + outputFile.getPath());
-            } else if (!outputFileMap.containsKey(ioFile)) {
-              getLog().warn("No compiler error logged for " + file + ", but still no output file was generated / mapped.");
+    CompileStatistics.Times compileTimes = getCompileTimes(context, module);
+    String outputDirectoryPath = joocConfig.getOutputDirectory().getPath();
+    try {
+      outputSinkItem = new OutputSinkItem(outputDirectoryPath);
+      IdeaCompileLog ideaCompileLog = new IdeaCompileLog(context);
+      getLog().info("running " + getDescription() + "...");
+      CompilationResult result = runJooc(context, joocConfigurationBean.jangarooSdkName, jarFileNames, joocConfig,
+        configurationFingerprint, ideaCompileLog, compileTimes);
+      if (result == null) {
+        return null;
+      }
+      long outputMappingStart = System.nanoTime();
+      List<File> compiledFiles = virtualToIoFiles(files);
+      compiledFiles.addAll(pipelinedFiles);
+      updateDependencyGraph(dependencyGraph, compiledFiles, dependencyGraphFile);
+      File apiOutputDirectory = joocConfig.getApiOutputDirectory();
+      if (apiOutputDirectory != null) {
+        updateApiFingerprints(context, module, dependencyGraph.getClassNames(compiledFiles),
+          deletedClassNames, apiOutputDirectory);
+      }
+      Map<File, File> outputFileMap = result.getOutputFileMap();
+      for (final VirtualFile file : files) {
+        if (ideaCompileLog.hasErrors(file)) {
+          outputSinkItem.addFileToRecompile(file);
+        } else {
+          File ioFile = VfsUtil.virtualToIoFile(file);
+          File outputFile = outputFileMap.get(ioFile);
+          if (outputFile != null) {
+            outputSinkItem.addOutputItem(file, outputFile);
+            String fileUrl = file.getUrl();
+            if (joocConfigurationBean.showCompilerInfoMessages) {
+              context.addMessage(CompilerMessageCategory.INFORMATION, "as->js (" + outputFile.getPath() + ")", fileUrl, -1, -1);
             }
+            getLog().info("as->js: " + fileUrl + " -> " + outputFile.getPath());
+          } else if (!outputFileMap.containsKey(ioFile)) {
+            getLog().warn("No compiler error logged for " + file + ", but still no output file was generated / mapped.");
           }
         }
-        if (result.getResultCode() != CompilationResult.RESULT_CODE_OK && !ideaCompileLog.hasErrors()) {
-          context.addMessage(CompilerMessageCategory.ERROR, "Compiler returned " + result.getResultCode(), null, -1, -1);
+      }
+      for (File pipelinedFile : pipelinedFiles) {
+        File outputFile = outputFileMap.get(pipelinedFile);
+        // errors in generated files cannot be attributed reliably, so only remember error-free results:
+        if (outputFile != null && !ideaCompileLog.hasErrors()) {
+          outputSinkItem.addPipelinedOutputItem(pipelinedFile, outputFile);
+          getLog().info("as->js (pipelined): " + pipelinedFile.getPath() + " -> " + outputFile.getPath());
         }
-      } catch (SecurityException e) {
-        String message = "Output directory " + outputDirectoryPath + " does not exist and could not be created: " + e.getMessage();
-        context.addMessage(CompilerMessageCategory.ERROR, message, null, -1, -1);
-        getLog().warn(message);
-      } catch (Exception e) {
-        getLog().error("Internal error while running Jangaroo compiler.", e);
-        context.addMessage(CompilerMessageCategory.ERROR, "Internal Jangaroo compiler error: " + e.getMessage(),
-          null, -1, -1);
       }
+      if (result.getResultCode() != CompilationResult.RESULT_CODE_OK && !ideaCompileLog.hasErrors()) {
+        context.addMessage(CompilerMessageCategory.ERROR, "Compiler returned " + result.getResultCode(), null, -1, -1);
+      }
+      compileTimes.add(CompileStatistics.Phase.OUTPUT_MAPPING, outputMappingStart);
+    } catch (SecurityException e) {
+      String message = "Output directory " + outputDirectoryPath + " does not exist and could not be created: " + e.getMessage();
+      context.addMessage(CompilerMessageCategory.ERROR, message, null, -1, -1);
+      getLog().warn(message);
+    } catch (Exception e) {
+      getLog().error("Internal error while running Jangaroo compiler.", e);
+      context.addMessage(CompilerMessageCategory.ERROR, "Internal Jangaroo compiler error: " + e.getMessage(),
+        null, -1, -1);
     }
     return outputSinkItem;
   }
 
+  /**
+   * Add all files that depend on any of the changed (or deleted) classes, because their compilation result
+   * may change, too.
+   */
+  private static List<VirtualFile> addDependentFiles(List<VirtualFile> changedFiles, Set<String> changedClassNames,
+                                                     ClassDependencyGraph dependencyGraph) {
+    List<VirtualFile> files = new ArrayList<VirtualFile>(changedFiles);
+    if (!changedClassNames.isEmpty()) {
+      Set<VirtualFile> fileSet = new HashSet<VirtualFile>(changedFiles);
+      LocalFileSystem localFileSystem = LocalFileSystem.getInstance();
+      for (File dependentFile : dependencyGraph.findDependentFiles(changedClassNames)) {
+        VirtualFile dependentVirtualFile = localFileSystem.findFileByIoFile(dependentFile);
+        if (dependentVirtualFile != null && fileSet.add(dependentVirtualFile)) {
+          files.add(dependentVirtualFile);
+        }
+      }
+      if (files.size() > changedFiles.size()) {
+        getLog().info("recompiling " + (files.size() - changedFiles.size()) + " files depending on changed classes " + changedClassNames);
+      }
+    }
+    return files;
+  }
+
+  private static void updateDependencyGraph(ClassDependencyGraph dependencyGraph, List<File> files, File dependencyGraphFile) {
+    try {
+      for (File file : files) {
+        dependencyGraph.update(file);
+      }
+      dependencyGraph.save(dependencyGraphFile);
+    } catch (IOException e) {
+      getLog().warn("Jangaroo: class dependency graph could not be updated, deleting " + dependencyGraphFile.getPath(), e);
+      //noinspection ResultOfMethodCallIgnored
+      dependencyGraphFile.delete();
+    }
+  }
+
+  private static Set<String> getApiChangedClassNames(CompileContext context) {
+    synchronized (API_CHANGED_CLASS_NAMES) {
+      Set<String> apiChangedClassNames = context.getUserData(API_CHANGED_CLASS_NAMES);
+      if (apiChangedClassNames == null) {
+        apiChangedClassNames = Collections.synchronizedSet(new LinkedHashSet<String>());
+        context.putUserData(API_CHANGED_CLASS_NAMES, apiChangedClassNames);
+      }
+      return apiChangedClassNames;
+    }
+  }
+
+  /**
+   * Compare the API stubs of all compiled classes against their last known fingerprints and remember the
+   * classes whose public API changed for all modules compiled later in this make.
+   */
+  private static void updateApiFingerprints(CompileContext context, Module module, Set<String> compiledClassNames,
+                                            Set<String> deletedClassNames, File apiOutputDirectory) {
+    File apiFingerprintsFile = getCacheFile(module, "api-fingerprints");
+    ApiFingerprints apiFingerprints = ApiFingerprints.load(apiFingerprintsFile);
+    Set<String> apiChangedClassNames = getApiChangedClassNames(context);
+    try {
+      for (String className : compiledClassNames) {
+        File apiStubFile = new File(apiOutputDirectory, className.replace('.', File.separatorChar) + Jooc.AS_SUFFIX);
+        if (apiFingerprints.update(className, apiStubFile)) {
+          apiChangedClassNames.add(className);
+        }
+      }
+      for (String className : deletedClassNames) {
+        if (apiFingerprints.remove(className)) {
+          apiChangedClassNames.add(className);
+        }
+      }
+      apiFingerprints.save(apiFingerprintsFile);
+    } catch (IOException e) {
+      getLog().warn("Jangaroo: API fingerprints could not be updated, deleting " + apiFingerprintsFile.getPath(), e);
+      //noinspection ResultOfMethodCallIgnored
+      apiFingerprintsFile.delete();
+      apiChangedClassNames.addAll(compiledClassNames); // be on the safe side
+    }
+  }
+
   protected String getInputFileSuffix() {
     return Jooc.AS_SUFFIX_NO_DOT;
   }
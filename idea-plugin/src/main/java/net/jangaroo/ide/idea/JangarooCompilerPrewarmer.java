@@ -0,0 +1,32 @@
+package net.jangaroo.ide.idea;
+
+import com.intellij.openapi.components.AbstractProjectComponent;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.startup.StartupManager;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Pre-warms the Jangaroo compilers of all Jangaroo SDKs used in a project in the background,
+ * as soon as the project is opened.
+ */
+public class JangarooCompilerPrewarmer extends AbstractProjectComponent {
+
+  public JangarooCompilerPrewarmer(Project project) {
+    super(project);
+  }
+
+  @NotNull
+  @Override
+  public String getComponentName() {
+    return "JangarooCompilerPrewarmer";
+  }
+
+  @Override
+  public void projectOpened() {
+    StartupManager.getInstance(myProject).registerPostStartupActivity(new Runnable() {
+      public void run() {
+        JangarooCompilerService.getInstance(myProject).prewarmAll();
+      }
+    });
+  }
+}
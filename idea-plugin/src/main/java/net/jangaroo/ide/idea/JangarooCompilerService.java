@@ -0,0 +1,332 @@
+package net.jangaroo.ide.idea;
+
+import com.intellij.ProjectTopics;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.projectRoots.ProjectJdkTable;
+import com.intellij.openapi.projectRoots.Sdk;
+import com.intellij.openapi.roots.ModuleRootEvent;
+import com.intellij.openapi.roots.ModuleRootListener;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.messages.MessageBusConnection;
+import net.jangaroo.ide.idea.util.CompilerLoader;
+import net.jangaroo.jooc.api.CompileLog;
+import net.jangaroo.jooc.api.FilePosition;
+import net.jangaroo.jooc.api.Jooc;
+import net.jangaroo.jooc.config.JoocConfiguration;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A project-level service that keeps Jangaroo compiler instances warm between makes.
+ * One idle Jooc instance is kept per compiler configuration fingerprint, which covers the Jangaroo SDK's JAR
+ * contents, the class path and the source path, so that the next make with the same configuration reuses
+ * everything the instance keeps in memory. Before an instance is pooled, its configuration and log are reset,
+ * so that it does not keep the compile context or any source files of its last run reachable.
+ * The pool is dropped whenever module roots or Jangaroo SDKs change, and idle instances are dropped after the
+ * idle time of the compiler class loaders, so that the class loaders can be evicted.
+ * The service can also pre-warm the compilers of a Jangaroo SDK in the background.
+ */
+public class JangarooCompilerService {
+
+  private static final CompileLog NO_LOG = new CompileLog() {
+    public void error(FilePosition position, String msg) {
+    }
+
+    public void error(String msg) {
+    }
+
+    public void warning(FilePosition position, String msg) {
+    }
+
+    public void warning(String msg) {
+    }
+
+    public boolean hasErrors() {
+      return false;
+    }
+  };
+
+  private static class IdleJooc {
+    private final CompilerLoader.CompilerLease<Jooc> joocLease;
+    private final long idleSince = System.currentTimeMillis();
+
+    private IdleJooc(CompilerLoader.CompilerLease<Jooc> joocLease) {
+      this.joocLease = joocLease;
+    }
+  }
+
+  private final Project project;
+  private final Map<String, IdleJooc> idleJoocsByFingerprint = new HashMap<String, IdleJooc>();
+  private final Set<String> prewarmedSdkKeys = new HashSet<String>();
+  private final Set<String> pendingSdkNames = new HashSet<String>();
+
+  public JangarooCompilerService(Project project) {
+    this.project = project;
+    MessageBusConnection projectConnection = project.getMessageBus().connect(project);
+    projectConnection.subscribe(ProjectTopics.PROJECT_ROOTS, new ModuleRootListener() {
+      public void beforeRootsChange(ModuleRootEvent event) {
+      }
+
+      public void rootsChanged(ModuleRootEvent event) {
+        invalidate();
+      }
+    });
+    MessageBusConnection applicationConnection = ApplicationManager.getApplication().getMessageBus().connect(project);
+    applicationConnection.subscribe(ProjectJdkTable.JDK_TABLE_TOPIC, new ProjectJdkTable.Listener() {
+      public void jdkAdded(Sdk jdk) {
+      }
+
+      public void jdkRemoved(Sdk jdk) {
+        invalidate();
+      }
+
+      public void jdkNameChanged(Sdk jdk, String previousName) {
+        invalidate();
+      }
+    });
+    Disposer.register(project, new Disposable() {
+      public void dispose() {
+        invalidate();
+      }
+    });
+  }
+
+  public static JangarooCompilerService getInstance(Project project) {
+    return ServiceManager.getService(project, JangarooCompilerService.class);
+  }
+
+  /**
+   * Take the idle Jooc instance for the given configuration fingerprint out of the pool, or load a new one.
+   * Pass the lease back to {@link #releaseJooc} when the run is done.
+   * @param configurationFingerprint the fingerprint of everything but the source files that influences the run,
+   *   including the SDK JARs, or null to never reuse an instance
+   */
+  public CompilerLoader.CompilerLease<Jooc> acquireJooc(List<String> jarFileNames, @Nullable String configurationFingerprint) throws FileNotFoundException, ClassNotFoundException, InstantiationException, IllegalAccessException {
+    if (configurationFingerprint != null) {
+      IdleJooc idleJooc;
+      synchronized (idleJoocsByFingerprint) {
+        idleJooc = idleJoocsByFingerprint.remove(configurationFingerprint);
+      }
+      releaseExpired();
+      if (idleJooc != null) {
+        return idleJooc.joocLease;
+      }
+    }
+    return CompilerLoader.acquireJooc(jarFileNames);
+  }
+
+  /**
+   * Reset the given Jooc instance and keep it for the next run with the same configuration fingerprint.
+   * @param completed whether the last run completed; an instance whose run failed is never reused
+   */
+  public void releaseJooc(@Nullable String configurationFingerprint, CompilerLoader.CompilerLease<Jooc> joocLease, boolean completed) {
+    Jooc jooc = joocLease.getCompiler();
+    jooc.setConfig(new JoocConfiguration());
+    jooc.setLog(NO_LOG);
+    IdleJooc replacedIdleJooc = null;
+    if (configurationFingerprint == null || !completed || project.isDisposed()) {
+      joocLease.release();
+    } else {
+      synchronized (idleJoocsByFingerprint) {
+        replacedIdleJooc = idleJoocsByFingerprint.put(configurationFingerprint, new IdleJooc(joocLease));
+      }
+    }
+    if (replacedIdleJooc != null) {
+      replacedIdleJooc.joocLease.release();
+    }
+    releaseExpired();
+  }
+
+  /**
+   * Drop all pooled compiler instances.
+   */
+  public void invalidate() {
+    List<IdleJooc> idleJoocs;
+    synchronized (idleJoocsByFingerprint) {
+      idleJoocs = new ArrayList<IdleJooc>(idleJoocsByFingerprint.values());
+      idleJoocsByFingerprint.clear();
+    }
+    for (IdleJooc idleJooc : idleJoocs) {
+      idleJooc.joocLease.release();
+    }
+  }
+
+  /**
+   * Drop pooled compiler instances that have been idle for longer than their class loaders may be, e.g. those
+   * of an outdated configuration, which are never hit again.
+   */
+  private void releaseExpired() {
+    long expired = System.currentTimeMillis() - CompilerLoader.getMaxIdleMillis();
+    List<IdleJooc> expiredIdleJoocs = new ArrayList<IdleJooc>();
+    synchronized (idleJoocsByFingerprint) {
+      for (Iterator<IdleJooc> idleJoocs = idleJoocsByFingerprint.values().iterator(); idleJoocs.hasNext(); ) {
+        IdleJooc idleJooc = idleJoocs.next();
+        if (idleJooc.idleSince < expired) {
+          expiredIdleJoocs.add(idleJooc);
+          idleJoocs.remove();
+        }
+      }
+    }
+    for (IdleJooc idleJooc : expiredIdleJoocs) {
+      idleJooc.joocLease.release();
+    }
+  }
+
+  /**
+   * In the background, pre-warm the compilers of all Jangaroo SDKs used by the project's modules.
+   */
+  public void prewarmAll() {
+    ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+      public void run() {
+        Set<String> jangarooSdkNames = ApplicationManager.getApplication().runReadAction(new Computable<Set<String>>() {
+          public Set<String> compute() {
+            Set<String> jangarooSdkNames = new LinkedHashSet<String>();
+            if (!project.isDisposed()) {
+              for (Module module : ModuleManager.getInstance(project).getModules()) {
+                JangarooFacet jangarooFacet = JangarooFacet.ofModule(module);
+                if (jangarooFacet != null && jangarooFacet.getConfiguration().getState().jangarooSdkName != null) {
+                  jangarooSdkNames.add(jangarooFacet.getConfiguration().getState().jangarooSdkName);
+                }
+              }
+            }
+            return jangarooSdkNames;
+          }
+        });
+        for (String jangarooSdkName : jangarooSdkNames) {
+          prewarmNow(jangarooSdkName);
+        }
+      }
+    });
+  }
+
+  /**
+   * In the background, pre-warm the compilers of the given Jangaroo SDK, so that the first make does not have
+   * to wait for class loading and JIT compilation.
+   * While a pre-warm of the same SDK is still pending, e.g. when a Maven import sets up many modules with the
+   * same SDK, no further background task is scheduled.
+   */
+  public void prewarm(final String jangarooSdkName) {
+    synchronized (pendingSdkNames) {
+      if (jangarooSdkName == null || !pendingSdkNames.add(jangarooSdkName)) {
+        return;
+      }
+    }
+    ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+      public void run() {
+        try {
+          prewarmNow(jangarooSdkName);
+        } finally {
+          synchronized (pendingSdkNames) {
+            pendingSdkNames.remove(jangarooSdkName);
+          }
+        }
+      }
+    });
+  }
+
+  private void prewarmNow(final String jangarooSdkName) {
+    List<String> jarFileNames = ApplicationManager.getApplication().runReadAction(new Computable<List<String>>() {
+      public List<String> compute() {
+        try {
+          return AbstractCompiler.getJarFileNames(jangarooSdkName);
+        } catch (IllegalStateException e) {
+          return null; // SDK not (yet) set up
+        }
+      }
+    });
+    if (jarFileNames == null) {
+      return;
+    }
+    String sdkKey = null;
+    boolean prewarmed = false;
+    try {
+      String jarsFingerprint = CompilerLoader.getJarsFingerprint(jarFileNames);
+      synchronized (prewarmedSdkKeys) {
+        if (!prewarmedSdkKeys.add(jarsFingerprint)) {
+          return;
+        }
+      }
+      sdkKey = jarsFingerprint;
+      long start = System.currentTimeMillis();
+      CompilerLoader.CompilerLease<Jooc> joocLease = CompilerLoader.acquireJooc(jarFileNames);
+      try {
+        runThrowawayCompile(joocLease.getCompiler());
+      } finally {
+        joocLease.release();
+      }
+      loadOptionalCompilers(jarFileNames);
+      prewarmed = true;
+      getLog().info("Jangaroo compilers of " + jangarooSdkName + " pre-warmed in " + (System.currentTimeMillis() - start) + " ms.");
+    } catch (Exception e) {
+      // not worth bothering the user: the next make reports any real SDK problem
+      getLog().info("Jangaroo compilers of " + jangarooSdkName + " could not be pre-warmed: " + e);
+    } finally {
+      if (!prewarmed && sdkKey != null) {
+        // let the next trigger try again:
+        synchronized (prewarmedSdkKeys) {
+          prewarmedSdkKeys.remove(sdkKey);
+        }
+      }
+    }
+  }
+
+  /**
+   * Compile a trivial class into a temporary directory, so that the compiler's classes are loaded and initialized.
+   */
+  private static void runThrowawayCompile(Jooc jooc) throws IOException {
+    File tempDir = FileUtil.createTempDirectory("jangaroo-prewarm", null);
+    try {
+      File sourceDir = new File(tempDir, "src");
+      File sourceFile = new File(sourceDir, "Prewarm" + Jooc.AS_SUFFIX);
+      FileUtil.createParentDirs(sourceFile);
+      FileUtil.writeToFile(sourceFile, "package {\npublic class Prewarm {\n  public function Prewarm() {\n  }\n}\n}\n".getBytes());
+      JoocConfiguration joocConfiguration = new JoocConfiguration();
+      joocConfiguration.setSourcePath(Collections.singletonList(sourceDir));
+      joocConfiguration.setSourceFiles(Collections.singletonList(sourceFile));
+      joocConfiguration.setOutputDirectory(new File(tempDir, "out"));
+      jooc.setConfig(joocConfiguration);
+      jooc.setLog(NO_LOG);
+      jooc.run();
+    } finally {
+      FileUtil.delete(tempDir);
+    }
+  }
+
+  private static void loadOptionalCompilers(List<String> jarFileNames) throws FileNotFoundException, InstantiationException, IllegalAccessException {
+    try {
+      CompilerLoader.acquireExmlc(jarFileNames).release();
+    } catch (ClassNotFoundException e) {
+      // SDK without EXML compiler
+    }
+    try {
+      CompilerLoader.acquirePropc(jarFileNames).release();
+    } catch (ClassNotFoundException e) {
+      // SDK without properties compiler
+    }
+  }
+
+  private static Logger getLog() {
+    return Logger.getInstance("JangarooCompilerService");
+  }
+
+}
@@ -216,6 +216,7 @@ public class JangarooFacetImporter extends FacetImporter<JangarooFacet, Jangaroo
     if (isWar) {
       postTasks.add(new AddJangarooPackagingOutputToExplodedWebArtifactsTask(jangarooFacet));
     }
+    JangarooCompilerService.getInstance(module.getProject()).prewarm(jooConfig.jangarooSdkName);
   }
 
   public static String jangarooSdkHomePath(String artifactId, String version) {
@@ -0,0 +1,71 @@
+package net.jangaroo.ide.idea;
+
+import com.intellij.lang.javascript.psi.JSFile;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.ModificationTracker;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiTreeChangeAdapter;
+import com.intellij.psi.PsiTreeChangeEvent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts PSI changes that may affect JavaScript / ActionScript declarations, i.e. all changes inside JS files
+ * and all changes that cannot be attributed to a single file, like creating, moving or deleting files.
+ * Changes in other files, e.g. typing in an EXML file, do not increase the modification count.
+ */
+public class JavaScriptModificationTracker implements ModificationTracker {
+
+  private final AtomicLong modificationCount = new AtomicLong();
+
+  public JavaScriptModificationTracker(Project project) {
+    PsiManager.getInstance(project).addPsiTreeChangeListener(new PsiTreeChangeAdapter() {
+      @Override
+      public void childAdded(PsiTreeChangeEvent event) {
+        changed(event);
+      }
+
+      @Override
+      public void childRemoved(PsiTreeChangeEvent event) {
+        changed(event);
+      }
+
+      @Override
+      public void childReplaced(PsiTreeChangeEvent event) {
+        changed(event);
+      }
+
+      @Override
+      public void childMoved(PsiTreeChangeEvent event) {
+        changed(event);
+      }
+
+      @Override
+      public void childrenChanged(PsiTreeChangeEvent event) {
+        changed(event);
+      }
+
+      @Override
+      public void propertyChanged(PsiTreeChangeEvent event) {
+        changed(event);
+      }
+    }, project);
+  }
+
+  public static JavaScriptModificationTracker getInstance(Project project) {
+    return ServiceManager.getService(project, JavaScriptModificationTracker.class);
+  }
+
+  public long getModificationCount() {
+    return modificationCount.get();
+  }
+
+  private void changed(PsiTreeChangeEvent event) {
+    PsiFile file = event.getFile();
+    if (file == null || file instanceof JSFile) {
+      modificationCount.incrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package net.jangaroo.ide.idea;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ExportableOrderEntry;
+import com.intellij.openapi.roots.LibraryOrderEntry;
+import com.intellij.openapi.roots.ModuleOrderEntry;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.roots.ModuleSourceOrderEntry;
+import com.intellij.openapi.roots.OrderEntry;
+import com.intellij.openapi.roots.OrderRootType;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A project-level cache of the Jangaroo class path and source path of each module, for main and for test
+ * compilation. All entries are dropped as soon as the project root model changes.
+ * Must be used inside a read action.
+ */
+public class ModuleFileLocationsCache {
+
+  /**
+   * The resolved class path and source path of a module.
+   */
+  public static class Paths {
+    private final List<File> classPath;
+    private final List<File> sourcePath;
+
+    private Paths(Collection<File> classPath, Collection<File> sourcePath) {
+      this.classPath = Collections.unmodifiableList(new ArrayList<File>(classPath));
+      this.sourcePath = Collections.unmodifiableList(new ArrayList<File>(sourcePath));
+    }
+
+    public List<File> getClassPath() {
+      return classPath;
+    }
+
+    public List<File> getSourcePath() {
+      return sourcePath;
+    }
+  }
+
+  private final Project project;
+  private final Map<Module, Paths> mainPathsByModule = new HashMap<Module, Paths>();
+  private final Map<Module, Paths> testPathsByModule = new HashMap<Module, Paths>();
+  private long rootModificationCount = -1;
+
+  public ModuleFileLocationsCache(Project project) {
+    this.project = project;
+  }
+
+  public static ModuleFileLocationsCache getInstance(Project project) {
+    return ServiceManager.getService(project, ModuleFileLocationsCache.class);
+  }
+
+  public synchronized Paths getPaths(Module module, boolean forTests) {
+    long currentRootModificationCount = ProjectRootManager.getInstance(project).getModificationCount();
+    if (currentRootModificationCount != rootModificationCount) {
+      mainPathsByModule.clear();
+      testPathsByModule.clear();
+      rootModificationCount = currentRootModificationCount;
+    }
+    Map<Module, Paths> pathsByModule = forTests ? testPathsByModule : mainPathsByModule;
+    Paths paths = pathsByModule.get(module);
+    if (paths == null) {
+      Collection<File> classPath = new LinkedHashSet<File>();
+      Collection<File> sourcePath = new LinkedHashSet<File>();
+      addToClassOrSourcePath(module, true, classPath, sourcePath, forTests, new HashSet<Module>());
+      paths = new Paths(classPath, sourcePath);
+      pathsByModule.put(module, paths);
+    }
+    return paths;
+  }
+
+  private static void addToClassOrSourcePath(Module module, boolean sourceModule, Collection<File> classPath, Collection<File> sourcePath,
+                                             boolean forTests, Set<Module> visited) {
+    if (!visited.add(module)) {
+      // already added through another dependency path (or a cyclic dependency): nothing new to add
+      return;
+    }
+    ModuleRootManager moduleRootManager = ModuleRootManager.getInstance(module);
+    for (OrderEntry orderEntry : moduleRootManager.getOrderEntries()) {
+      if (orderEntry instanceof ExportableOrderEntry) {
+        switch (((ExportableOrderEntry)orderEntry).getScope()) {
+          case RUNTIME:
+            continue;
+          case TEST:
+            if (!forTests) {
+              continue;
+            }
+          // PROVIDED, COMPILE: add to path!
+        }
+      }
+      if (orderEntry instanceof ModuleSourceOrderEntry) {
+        VirtualFile[] sourceRoots = ((ModuleSourceOrderEntry)orderEntry).getRootModel().getSourceRoots();
+        for (VirtualFile sourceRoot : sourceRoots) {
+          if (forTests || !moduleRootManager.getFileIndex().isInTestSourceContent(sourceRoot)) {
+            (sourceModule ? sourcePath : classPath).add(VfsUtil.virtualToIoFile(sourceRoot));
+          }
+        }
+      } else if (orderEntry instanceof LibraryOrderEntry) {
+        classPath.addAll(AbstractCompiler.virtualToIoFiles(Arrays.asList(((LibraryOrderEntry)orderEntry).getRootFiles(OrderRootType.CLASSES))));
+      } else if (orderEntry instanceof ModuleOrderEntry) {
+        Module dependentModule = ((ModuleOrderEntry)orderEntry).getModule();
+        if (dependentModule != null) {
+          addToClassOrSourcePath(dependentModule, false, classPath, sourcePath, forTests, visited);
+        }
+      }
+    }
+  }
+}
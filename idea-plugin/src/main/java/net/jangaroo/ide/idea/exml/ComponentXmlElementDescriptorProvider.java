@@ -1,22 +1,16 @@
 package net.jangaroo.ide.idea.exml;
 
 import com.intellij.idea.IdeaLogger;
-import com.intellij.lang.javascript.psi.ecmal4.JSAttribute;
-import com.intellij.lang.javascript.psi.ecmal4.JSAttributeList;
-import com.intellij.lang.javascript.psi.ecmal4.JSClass;
-import com.intellij.openapi.module.Module;
-import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.roots.ModuleRootManager;
-import com.intellij.openapi.roots.OrderRootType;
-import com.intellij.openapi.roots.libraries.Library;
-import com.intellij.openapi.roots.libraries.LibraryTable;
-import com.intellij.openapi.roots.libraries.LibraryTablesRegistrar;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiManager;
 import com.intellij.psi.impl.source.xml.XmlElementDescriptorProvider;
+import com.intellij.psi.search.FilenameIndex;
+import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.xml.XmlTag;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.psi.xml.XmlDocument;
@@ -73,37 +67,36 @@ public class ComponentXmlElementDescriptorProvider implements XmlElementDescript
       NSDescriptor = xmlElementDescriptor.getNSDescriptor();
     }
 
+    /**
+     * The target class of this component element. The lookup is cached per class in the project's
+     * {@link ConfigClassCache}, because descriptors are created anew for each tag.
+     */
     public String getTargetClassName() {
       XmlTag declaration = (XmlTag)super.getDeclaration();
+      if (declaration == null) {
+        return null;
+      }
       // only check top-level declarations:
-      if (declaration != null && declaration.getParentTag() != null
+      if (declaration.getParentTag() != null
         && "schema".equals(declaration.getParentTag().getLocalName())
         && "http://www.w3.org/2001/XMLSchema".equals(declaration.getParentTag().getNamespace())) {
         String packageName = ExmlUtils.parsePackageFromNamespace(getNamespace());
         if (packageName != null) {
           String className = CompilerUtils.qName(packageName, getName());
-          Project project = declaration.getProject();
-          JSClass asClass = AbstractCompiler.getASClass(project, className);
-          if (asClass != null && asClass.isValid()) {
-            // found ActionScript class.
-            String targetClassName = className;
-            // could be a config class with an [ExtConfig(target="...")] annotation:
-            JSAttributeList attributeList = asClass.getAttributeList();
-            if (attributeList != null) {
-              for (JSAttribute attribute : attributeList.getAttributes()) {
-                if ("ExtConfig".equals(attribute.getName())) {
-                  targetClassName = attribute.getValueByName("target").getSimpleValue();
-                  break;
-                }
-              }
-            }
-            return targetClassName;
-          }
+          return ConfigClassCache.getInstance(declaration.getProject()).getTargetClassName(className);
         }
       }
       return null;
     }
 
+    /**
+     * The declaration of this component element in its XSD, as opposed to {@link #getDeclaration()}, which
+     * prefers the EXML file.
+     */
+    public PsiElement getDeclarationInSchema() {
+      return super.getDeclaration();
+    }
+
     public PsiElement getDeclaration() {
       PsiElement declaration = super.getDeclaration();
       String targetClassName = getTargetClassName();
@@ -122,35 +115,28 @@ public class ComponentXmlElementDescriptorProvider implements XmlElementDescript
       return declaration;
     }
 
-    private static VirtualFile findExmlFile(Project project, String className) {
-      String exmlFileName = className.replace('.', '/') + Exmlc.EXML_SUFFIX;
-      Module[] modules = ModuleManager.getInstance(project).getModules();
-      for (Module module : modules) {
-        VirtualFile exmlFile = findExmlFile(ModuleRootManager.getInstance(module).getSourceRoots(), exmlFileName);
-        if (exmlFile != null) {
-          return exmlFile;
+    /**
+     * Look up the EXML file of the given class by its file name in IDEA's file name index, filtered by package,
+     * preferring module sources over library sources.
+     */
+    private static @Nullable VirtualFile findExmlFile(@NotNull Project project, @NotNull String className) {
+      ProjectFileIndex projectFileIndex = ProjectRootManager.getInstance(project).getFileIndex();
+      String packageName = CompilerUtils.packageName(className);
+      VirtualFile libraryExmlFile = null;
+      for (VirtualFile exmlFile : FilenameIndex.getVirtualFilesByName(project,
+        CompilerUtils.className(className) + Exmlc.EXML_SUFFIX, GlobalSearchScope.allScope(project))) {
+        VirtualFile packageDir = exmlFile.getParent();
+        if (packageDir == null || !packageName.equals(projectFileIndex.getPackageNameByDirectory(packageDir))) {
+          continue;
         }
-      }
-      LibraryTable table = LibraryTablesRegistrar.getInstance().getLibraryTableByLevel(LibraryTablesRegistrar.PROJECT_LEVEL, project);
-      if (table != null) {
-        for (Library library : table.getLibraries()) {
-          VirtualFile exmlFile = findExmlFile(library.getFiles(OrderRootType.SOURCES), exmlFileName);
-          if (exmlFile != null) {
-            return exmlFile;
-          }
-        }
-      }
-      return null;
-    }
-
-    private static @Nullable VirtualFile findExmlFile(@NotNull VirtualFile[] sourceRoots, @NotNull String exmlFileName) {
-      for (VirtualFile contentRoot : sourceRoots) {
-        VirtualFile exmlFile = contentRoot.findFileByRelativePath(exmlFileName);
-        if (exmlFile != null) {
+        if (projectFileIndex.isInSourceContent(exmlFile)) {
           return exmlFile;
         }
+        if (libraryExmlFile == null) {
+          libraryExmlFile = exmlFile;
+        }
       }
-      return null;
+      return libraryExmlFile;
     }
 
     public XmlNSDescriptor getNSDescriptor() {
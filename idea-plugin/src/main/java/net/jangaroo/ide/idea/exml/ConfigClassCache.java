@@ -0,0 +1,172 @@
+package net.jangaroo.ide.idea.exml;
+
+import com.intellij.lang.javascript.psi.JSFunction;
+import com.intellij.lang.javascript.psi.JSParameter;
+import com.intellij.lang.javascript.psi.JSVariable;
+import com.intellij.lang.javascript.psi.ecmal4.JSClass;
+import com.intellij.lang.javascript.psi.resolve.JSResolveUtil;
+import com.intellij.lang.javascript.psi.resolve.ResolveProcessor;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.ResolveState;
+import net.jangaroo.ide.idea.AbstractCompiler;
+import net.jangaroo.ide.idea.JavaScriptModificationTracker;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A project-level cache of the ActionScript type lookups needed to inject AS3 code into EXML and to resolve EXML
+ * component elements: the config class of a component class, whether a config property is Array-typed, and the
+ * target class of a component element's class. All entries are dropped as soon as any JavaScript / ActionScript
+ * PSI changes.
+ * Must be used inside a read action.
+ */
+public class ConfigClassCache {
+
+  /**
+   * Marks a cached lookup that found no class, as a ConcurrentMap cannot hold null values.
+   */
+  private static final String NO_CLASS = new String("<none>");
+
+  private final Project project;
+  private final ConcurrentMap<String, String> configClassNamesByClassName = new ConcurrentHashMap<String, String>();
+  private final ConcurrentMap<String, Boolean> arrayPropertiesByKey = new ConcurrentHashMap<String, Boolean>();
+  private final ConcurrentMap<String, String> targetClassNamesByClassName = new ConcurrentHashMap<String, String>();
+  private long modificationCount = -1;
+
+  public ConfigClassCache(Project project) {
+    this.project = project;
+  }
+
+  public static ConfigClassCache getInstance(Project project) {
+    return ServiceManager.getService(project, ConfigClassCache.class);
+  }
+
+  /**
+   * Since the EXML update, an EXML element may denote a target class instead of a config class. In this case,
+   * the config class is the type of the target class's constructor parameter "config".
+   * @return the config class name, or the given class name if it already is a config class or cannot be resolved
+   */
+  public String getConfigClassName(String className) {
+    long validModificationCount = validate();
+    String configClassName = configClassNamesByClassName.get(className);
+    if (configClassName == null) {
+      configClassName = findConfigClassName(className);
+      if (isValid(validModificationCount)) {
+        configClassNamesByClassName.put(className, configClassName);
+      }
+    }
+    return configClassName;
+  }
+
+  /**
+   * Whether the given property of the given config class (or one of its super classes) is declared to be
+   * of type Array.
+   */
+  public boolean isArrayProperty(String configClassName, String propertyName) {
+    long validModificationCount = validate();
+    String key = configClassName + '#' + propertyName;
+    Boolean arrayProperty = arrayPropertiesByKey.get(key);
+    if (arrayProperty == null) {
+      arrayProperty = "Array".equals(findPropertyType(configClassName, propertyName));
+      if (isValid(validModificationCount)) {
+        arrayPropertiesByKey.put(key, arrayProperty);
+      }
+    }
+    return arrayProperty;
+  }
+
+  /**
+   * The target class of the given class of an EXML component element: the target of its [ExtConfig] annotation
+   * if it is a config class, the class itself if it is any other ActionScript class.
+   * @return the target class name, or null if the class cannot be found
+   */
+  public @Nullable String getTargetClassName(String className) {
+    long validModificationCount = validate();
+    String targetClassName = targetClassNamesByClassName.get(className);
+    if (targetClassName == null) {
+      targetClassName = findTargetClassName(className);
+      if (targetClassName == null) {
+        targetClassName = NO_CLASS;
+      }
+      if (isValid(validModificationCount)) {
+        targetClassNamesByClassName.put(className, targetClassName);
+      }
+    }
+    //noinspection StringEquality
+    return targetClassName == NO_CLASS ? null : targetClassName;
+  }
+
+  /**
+   * Drop all entries if any JavaScript PSI changed since the last call.
+   * @return the modification count the cache entries are valid for
+   */
+  private synchronized long validate() {
+    long currentModificationCount = JavaScriptModificationTracker.getInstance(project).getModificationCount();
+    if (currentModificationCount != modificationCount) {
+      configClassNamesByClassName.clear();
+      arrayPropertiesByKey.clear();
+      targetClassNamesByClassName.clear();
+      modificationCount = currentModificationCount;
+    }
+    return modificationCount;
+  }
+
+  /**
+   * Whether a result computed for the given modification count may still be cached.
+   */
+  private boolean isValid(long validModificationCount) {
+    return JavaScriptModificationTracker.getInstance(project).getModificationCount() == validModificationCount;
+  }
+
+  private String findConfigClassName(String className) {
+    JSClass asClass = AbstractCompiler.getASClass(project, className);
+    if (asClass != null) {
+      JSFunction asConstructor = asClass.getConstructor();
+      if (asConstructor != null) {
+        JSParameter[] parameters = asConstructor.getParameterList().getParameters();
+        if (parameters.length > 0 & "config".equals(parameters[0].getName())) {
+          String configClassNameCandidate = parameters[0].getType().getResolvedTypeText();
+          if (!"Object".equals(configClassNameCandidate)) {
+            return configClassNameCandidate;
+          }
+        }
+      }
+    }
+    return className;
+  }
+
+  private @Nullable String findTargetClassName(String className) {
+    // could be a config class with an [ExtConfig(target="...")] annotation:
+    String targetClassName = ExtConfigIndex.getTargetClassName(project, className);
+    if (targetClassName != null) {
+      return targetClassName;
+    }
+    JSClass asClass = AbstractCompiler.getASClass(project, className);
+    return asClass != null && asClass.isValid() ? className : null;
+  }
+
+  private String findPropertyType(String configClassName, String propertyName) {
+    JSClass asClass = AbstractCompiler.getASClass(project, configClassName);
+    if (asClass != null) {
+      // find declaration of the property's get or set method or field:
+      ResolveProcessor propertyResolveProcessor = new ResolveProcessor(propertyName);
+      propertyResolveProcessor.setToProcessHierarchy(true);
+      propertyResolveProcessor.setToProcessMembers(true);
+      if (!asClass.processDeclarations(propertyResolveProcessor, ResolveState.initial(), asClass, asClass)) {
+        PsiElement result = propertyResolveProcessor.getResult();
+        if (result instanceof JSFunction) {
+          JSFunction method = (JSFunction)result;
+          return method.isSetProperty() ? JSResolveUtil.getTypeFromSetAccessor(method)
+            : method.getReturnTypeString();
+        } else if (result instanceof JSVariable) {
+          return ((JSVariable)result).getTypeString();
+        }
+      }
+    }
+    return null;
+  }
+}
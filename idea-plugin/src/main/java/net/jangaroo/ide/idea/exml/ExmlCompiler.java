@@ -9,7 +9,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.roots.OrderEntry;
 import com.intellij.openapi.roots.OrderRootType;
-import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import net.jangaroo.exml.api.Exmlc;
@@ -17,20 +17,21 @@ import net.jangaroo.exml.api.ExmlcException;
 import net.jangaroo.exml.config.ExmlConfiguration;
 import net.jangaroo.ide.idea.AbstractCompiler;
 import net.jangaroo.ide.idea.JoocConfigurationBean;
+import net.jangaroo.ide.idea.util.CompileStatistics;
 import net.jangaroo.ide.idea.util.CompilerLoader;
 import net.jangaroo.ide.idea.util.OutputSinkItem;
+import net.jangaroo.ide.idea.util.StagedOutput;
 import net.jangaroo.jooc.api.Jooc;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Enumeration;
-import java.util.LinkedHashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.concurrent.Callable;
 
 import static net.jangaroo.ide.idea.util.IdeaFileUtils.toPath;
 
@@ -58,6 +59,17 @@ public class ExmlCompiler extends AbstractCompiler implements IntermediateOutput
     return null;
   }
 
+  /**
+   * Everything in the EXML configuration that determines the generated output.
+   */
+  public static String getExmlcConfigurationFingerprint(@NotNull ExmlcConfigurationBean exmlcConfigurationBean) {
+    return exmlcConfigurationBean.getConfigClassPackage()
+      + ',' + exmlcConfigurationBean.getGeneratedSourcesDirectory()
+      + ',' + exmlcConfigurationBean.getGeneratedTestSourcesDirectory()
+      + ',' + exmlcConfigurationBean.getGeneratedResourcesDirectory()
+      + ',' + exmlcConfigurationBean.validationMode;
+  }
+
   static String findDependentModuleZipFileName(OrderEntry orderEntry) throws IOException {
     VirtualFile[] files = orderEntry.getFiles(OrderRootType.CLASSES);
     // check that library is not empty:
@@ -71,19 +83,6 @@ public class ExmlCompiler extends AbstractCompiler implements IntermediateOutput
     return null;
   }
 
-  static Set<ZipEntry> findXsdZipEntries(ZipFile zipFile) throws IOException {
-    // find a *.xsd in jar's root folder:
-    Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
-    Set<ZipEntry> result = new LinkedHashSet<ZipEntry>();
-    while (enumeration.hasMoreElements()) {
-      ZipEntry zipEntry = enumeration.nextElement();
-      if (!zipEntry.isDirectory() && zipEntry.getName().indexOf('/') == -1 && zipEntry.getName().endsWith(".xsd")) {
-        result.add(zipEntry);
-      }
-    }
-    return result;
-  }
-
   @Override
   protected String getInputFileSuffix() {
     return Exmlc.EXML_SUFFIX.substring(1);
@@ -99,49 +98,219 @@ public class ExmlCompiler extends AbstractCompiler implements IntermediateOutput
   }
 
   @Override
-  protected OutputSinkItem compile(CompileContext context, Module module, List<VirtualFile> files, boolean forTests) {
+  protected String getConfigurationFingerprint(Module module, boolean forTests) {
+    String joocConfigurationFingerprint = super.getConfigurationFingerprint(module, forTests);
     ExmlcConfigurationBean exmlcConfigurationBean = getExmlConfig(module);
-    JoocConfigurationBean joocConfigurationBean = getJoocConfigurationBean(module);
-    ExmlConfiguration exmlConfiguration = new ExmlConfiguration();
-    updateFileLocations(exmlConfiguration, module, files, forTests);
-    exmlConfiguration.setLog(new IdeaCompileLog(context));
-    copyFromBeanToConfiguration(exmlcConfigurationBean, exmlConfiguration, forTests);
-    Exmlc exmlc = getExmlc(joocConfigurationBean.jangarooSdkName, exmlConfiguration, context);
-    if (exmlc == null) {
+    return joocConfigurationFingerprint == null || exmlcConfigurationBean == null ? null
+      : joocConfigurationFingerprint + ',' + getExmlcConfigurationFingerprint(exmlcConfigurationBean);
+  }
+
+  @Override
+  protected CompileJob prepareCompile(final CompileContext context, final Module module, final List<VirtualFile> files, final boolean forTests) {
+    ExmlcConfigurationBean exmlcConfigurationBean = getExmlConfig(module);
+    final JoocConfigurationBean joocConfigurationBean = getJoocConfigurationBean(module);
+    if (files.isEmpty()) {
+      return null;
+    }
+    final List<String> jarFileNames;
+    try {
+      jarFileNames = getJarFileNames(joocConfigurationBean.jangarooSdkName);
+    } catch (IllegalStateException e) {
+      context.addMessage(CompilerMessageCategory.ERROR, e.getMessage(), null, -1, -1);
+      return null;
+    }
+    // each worker gets its own exmlc instance with its own configuration and log:
+    final List<ExmlConfiguration> exmlConfigurations = new ArrayList<ExmlConfiguration>();
+    for (int i = getGenerationWorkerCount(files.size()); i > 0; i--) {
+      ExmlConfiguration exmlConfiguration = new ExmlConfiguration();
+      updateFileLocations(exmlConfiguration, module, files, forTests);
+      exmlConfiguration.setLog(new IdeaCompileLog(context));
+      copyFromBeanToConfiguration(exmlcConfigurationBean, exmlConfiguration, forTests);
+      exmlConfigurations.add(exmlConfiguration);
+    }
+    final OutputSinkItem outputSinkItem = createGeneratedSourcesOutputSinkItem(context, exmlConfigurations.get(0).getOutputDirectory().getPath());
+    if (outputSinkItem == null) {
       return null;
     }
-    if (!files.isEmpty()) {
-      OutputSinkItem outputSinkItem = createGeneratedSourcesOutputSinkItem(context, exmlConfiguration.getOutputDirectory().getPath());
-      for (VirtualFile virtualSourceFile : files) {
-        File sourceFile = VfsUtil.virtualToIoFile(virtualSourceFile);
+    final File xsdSurfaceFingerprintsFile = getCacheFile(module, forTests ? "test-xsd-surface" : "xsd-surface");
+    final String exmlcConfigurationFingerprint = getExmlcConfigurationFingerprint(exmlcConfigurationBean);
+    final StagedOutput stagedOutput = createStagedOutput(module, forTests, exmlConfigurations.get(0).getOutputDirectory());
+    return new CompileJob(virtualToIoFiles(files)) {
+      public OutputSinkItem run() {
+        CompileStatistics.Times compileTimes = getCompileTimes(context, module);
+        if (stagedOutput != null) {
+          File stagingDirectory = stagedOutput.clearStagingDirectory();
+          for (ExmlConfiguration exmlConfiguration : exmlConfigurations) {
+            exmlConfiguration.setOutputDirectory(stagingDirectory);
+          }
+        }
+        long classLoadingStart = System.nanoTime();
+        List<CompilerLoader.CompilerLease<Exmlc>> exmlcLeases = new ArrayList<CompilerLoader.CompilerLease<Exmlc>>(exmlConfigurations.size());
         try {
-          File generatedConfigClass = exmlc.generateConfigClass(sourceFile);
-          File generatedTargetClass = exmlc.generateComponentClass(sourceFile);
-          String fileUrl = virtualSourceFile.getUrl();
-          getLog().info("exml->as (config): " + fileUrl + " -> " + generatedConfigClass.getPath());
-          if (generatedTargetClass == null) {
-            outputSinkItem.addOutputItem(virtualSourceFile, generatedConfigClass);
+          List<Exmlc> exmlcs = new ArrayList<Exmlc>(exmlConfigurations.size());
+          for (ExmlConfiguration exmlConfiguration : exmlConfigurations) {
+            CompilerLoader.CompilerLease<Exmlc> exmlcLease = getExmlc(joocConfigurationBean.jangarooSdkName, jarFileNames, exmlConfiguration, context);
+            if (exmlcLease == null) {
+              return null;
+            }
+            exmlcLeases.add(exmlcLease);
+            exmlcs.add(exmlcLease.getCompiler());
+          }
+          compileTimes.add(CompileStatistics.Phase.CLASS_LOADING, classLoadingStart);
+          long runStart = System.nanoTime();
+          ExmlBatch batch = new ExmlBatch(files);
+          batch.generate(exmlcs);
+          Collection<VirtualFile> compiledFiles = batch.addTo(context, outputSinkItem, stagedOutput);
+          updateXsd(context, exmlcs.get(0), compiledFiles, exmlcConfigurationFingerprint, xsdSurfaceFingerprintsFile,
+            outputSinkItem);
+          pipelineGeneratedSources(context, module, forTests, outputSinkItem);
+          compileTimes.add(CompileStatistics.Phase.RUN, runStart);
+        } finally {
+          for (CompilerLoader.CompilerLease<Exmlc> exmlcLease : exmlcLeases) {
+            exmlcLease.release();
+          }
+        }
+        return outputSinkItem;
+      }
+    };
+  }
+
+  /**
+   * The results of compiling a batch of EXML files. Each EXML file is compiled by one exmlc instance, in two
+   * passes: first, all config classes are generated, so that the second pass, which generates the component
+   * classes, finds all config classes of this batch up-to-date.
+   * With several exmlc instances, each instance compiles an equal share of the files concurrently. Results are
+   * only stored per file index, so that they can be added to the output sink item in the original order later.
+   */
+  private static class ExmlBatch {
+    private final List<VirtualFile> files;
+    private final File[] generatedConfigClasses;
+    private final File[] generatedTargetClasses;
+    private final ExmlcException[] exceptions;
+
+    private ExmlBatch(List<VirtualFile> files) {
+      this.files = files;
+      generatedConfigClasses = new File[files.size()];
+      generatedTargetClasses = new File[files.size()];
+      exceptions = new ExmlcException[files.size()];
+    }
+
+    private void generate(List<Exmlc> exmlcs) {
+      for (final boolean componentClasses : new boolean[]{false, true}) {
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(exmlcs.size());
+        for (int i = 0; i < exmlcs.size(); i++) {
+          final Exmlc exmlc = exmlcs.get(i);
+          final int firstIndex = i;
+          final int step = exmlcs.size();
+          tasks.add(new Callable<Void>() {
+            public Void call() {
+              for (int index = firstIndex; index < files.size(); index += step) {
+                generate(exmlc, index, componentClasses);
+              }
+              return null;
+            }
+          });
+        }
+        invokeAll(tasks);
+      }
+    }
+
+    private void generate(Exmlc exmlc, int index, boolean componentClass) {
+      if (exceptions[index] != null) {
+        return; // config class already failed
+      }
+      File sourceFile = VfsUtil.virtualToIoFile(files.get(index));
+      try {
+        if (componentClass) {
+          generatedTargetClasses[index] = exmlc.generateComponentClass(sourceFile);
+        } else {
+          generatedConfigClasses[index] = exmlc.generateConfigClass(sourceFile);
+        }
+      } catch (ExmlcException e) {
+        exceptions[index] = e;
+      }
+    }
+
+    /**
+     * Report the results of this batch. If the classes have been generated into a staging output, only those
+     * with changed content are copied to the real output directory.
+     * @return the EXML files that compiled without errors
+     */
+    private Collection<VirtualFile> addTo(CompileContext context, OutputSinkItem outputSinkItem, StagedOutput stagedOutput) {
+      List<VirtualFile> compiledFiles = new ArrayList<VirtualFile>();
+      for (int index = 0; index < files.size(); index++) {
+        VirtualFile virtualSourceFile = files.get(index);
+        if (exceptions[index] != null) {
+          outputSinkItem.addFileToRecompile(virtualSourceFile);
+          addMessageForExmlcException(context, exceptions[index]);
+          continue;
+        }
+        String fileUrl = virtualSourceFile.getUrl();
+        try {
+          if (generatedTargetClasses[index] == null) {
+            File configClass = addGeneratedFile(outputSinkItem, stagedOutput, virtualSourceFile, generatedConfigClasses[index]);
+            getLog().info("exml->as (config): " + fileUrl + " -> " + configClass.getPath());
           } else {
-            getLog().info("exml->as (target): " + fileUrl + " -> " + generatedTargetClass.getPath());
-            outputSinkItem.addOutputItem(virtualSourceFile, generatedTargetClass);
-            outputSinkItem.addFileToRefresh(generatedConfigClass);
+            File configClass = addGeneratedFile(outputSinkItem, stagedOutput, null, generatedConfigClasses[index]);
+            getLog().info("exml->as (config): " + fileUrl + " -> " + configClass.getPath());
+            File targetClass = addGeneratedFile(outputSinkItem, stagedOutput, virtualSourceFile, generatedTargetClasses[index]);
+            getLog().info("exml->as (target): " + fileUrl + " -> " + targetClass.getPath());
           }
-        } catch (ExmlcException e) {
+        } catch (IOException e) {
+          context.addMessage(CompilerMessageCategory.ERROR, "Generated class could not be written: " + e.getMessage(),
+            fileUrl, -1, -1);
           outputSinkItem.addFileToRecompile(virtualSourceFile);
-          addMessageForExmlcException(context, e);
+          continue;
         }
+        compiledFiles.add(virtualSourceFile);
       }
-      // if any EXML file has been changed, try re-generate this module's XSD:
-      try {
-        File generatedXsd = exmlc.generateXsd();
-        getLog().info("exml->xsd: " + generatedXsd.getPath());
+      return compiledFiles;
+    }
+  }
+
+  /**
+   * Re-generate this module's XSD, but only if the EXML configuration or the XSD-relevant surface of any EXML
+   * file changed.
+   * If the re-generated XSD is byte-wise identical to the previous one, it keeps its time stamp and
+   * is not refreshed, so that IDEA does not have to reload the schema.
+   */
+  private static void updateXsd(CompileContext context, Exmlc exmlc, Collection<VirtualFile> compiledFiles,
+                                String exmlcConfigurationFingerprint, File xsdSurfaceFingerprintsFile,
+                                OutputSinkItem outputSinkItem) {
+    XsdSurfaceFingerprints xsdSurfaceFingerprints = XsdSurfaceFingerprints.load(xsdSurfaceFingerprintsFile);
+    boolean surfaceChanged = xsdSurfaceFingerprints.updateConfiguration(exmlcConfigurationFingerprint);
+    surfaceChanged |= xsdSurfaceFingerprints.removeDeletedFiles();
+    for (VirtualFile compiledFile : compiledFiles) {
+      surfaceChanged |= xsdSurfaceFingerprints.update(VfsUtil.virtualToIoFile(compiledFile));
+    }
+    File previousXsd = xsdSurfaceFingerprints.getXsdFile();
+    if (!surfaceChanged && previousXsd != null && previousXsd.exists()) {
+      getLog().info("exml->xsd: no EXML component changed its XSD surface, skipping " + previousXsd.getPath());
+      return;
+    }
+    try {
+      byte[] previousXsdContent = previousXsd != null && previousXsd.exists() ? FileUtil.loadFileBytes(previousXsd) : null;
+      long previousXsdLastModified = previousXsd == null ? 0 : previousXsd.lastModified();
+      File generatedXsd = exmlc.generateXsd();
+      getLog().info("exml->xsd: " + generatedXsd.getPath());
+      if (previousXsdContent != null && generatedXsd.equals(previousXsd)
+        && Arrays.equals(previousXsdContent, FileUtil.loadFileBytes(generatedXsd))) {
+        //noinspection ResultOfMethodCallIgnored
+        generatedXsd.setLastModified(previousXsdLastModified);
+      } else {
         outputSinkItem.addFileToRefresh(generatedXsd.getParentFile()); // refresh complete directory for other XSD files!
-      } catch (ExmlcException e) {
-        ExmlCompiler.addMessageForExmlcException(context, e);
       }
-      return outputSinkItem;
+      xsdSurfaceFingerprints.setXsdFile(generatedXsd);
+      xsdSurfaceFingerprints.save(xsdSurfaceFingerprintsFile);
+    } catch (ExmlcException e) {
+      ExmlCompiler.addMessageForExmlcException(context, e);
+      //noinspection ResultOfMethodCallIgnored
+      xsdSurfaceFingerprintsFile.delete(); // make sure to re-generate next time
+    } catch (IOException e) {
+      getLog().warn("Jangaroo: XSD surface fingerprints could not be updated, deleting " + xsdSurfaceFingerprintsFile.getPath(), e);
+      //noinspection ResultOfMethodCallIgnored
+      xsdSurfaceFingerprintsFile.delete();
     }
-    return null;
   }
 
   private static void addMessageForExmlcException(@NotNull CompileContext context, @NotNull ExmlcException e) {
@@ -162,15 +331,15 @@ public class ExmlCompiler extends AbstractCompiler implements IntermediateOutput
         column = exmlcException.getColumn();
       }
     }
-    VirtualFile virtualFile = file == null ? null : LocalFileSystem.getInstance().findFileByIoFile(file);
+    VirtualFile virtualFile = file == null ? null : findFileByIoFile(file);
     context.addMessage(CompilerMessageCategory.ERROR, e.getLocalizedMessage(), virtualFile==null ? null : virtualFile.getUrl(), line, column);
   }
 
-  private Exmlc getExmlc(String jangarooSdkName, ExmlConfiguration exmlConfiguration, CompileContext context) {
-    Exmlc exmlc = null;
+  private CompilerLoader.CompilerLease<Exmlc> getExmlc(String jangarooSdkName, List<String> jarFileNames, ExmlConfiguration exmlConfiguration, CompileContext context) {
+    CompilerLoader.CompilerLease<Exmlc> exmlcLease = null;
     try {
-      exmlc = CompilerLoader.loadExmlc(getJarFileNames(jangarooSdkName));
-      exmlc.setConfig(exmlConfiguration);
+      exmlcLease = CompilerLoader.acquireExmlc(jarFileNames);
+      exmlcLease.getCompiler().setConfig(exmlConfiguration);
     } catch (FileNotFoundException e) {
       context.addMessage(CompilerMessageCategory.ERROR, e.getMessage(), null, -1, -1);
     } catch (Exception e) {
@@ -178,7 +347,7 @@ public class ExmlCompiler extends AbstractCompiler implements IntermediateOutput
         " not correctly set up or not compatible with this Jangaroo IDEA plugin: " + e.getMessage(),
         null, -1, -1);
     }
-    return exmlc;
+    return exmlcLease;
   }
 
   private static Logger getLog() {
@@ -28,9 +28,6 @@ import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import static net.jangaroo.ide.idea.JangarooFacetImporter.EXML_MAVEN_PLUGIN_ARTIFACT_ID;
 import static net.jangaroo.ide.idea.JangarooFacetImporter.JANGAROO_GROUP_ID;
@@ -128,6 +125,7 @@ public class ExmlFacetImporter extends FacetImporter<ExmlFacet, ExmlFacetConfigu
     // Collect the XSD resource mappings of this modules and all its dependent component suites.
     //System.out.println("Scanning dependencies of " + moduleName + " for component suite XSDs...");
     final Map<String, String> resourceMap = new LinkedHashMap<String, String>();
+    JarXsdEntries jarXsdEntries = JarXsdEntries.getInstance();
     OrderEntry[] orderEntries = ModuleRootManager.getInstance(module).getOrderEntries();
     for (OrderEntry orderEntry : orderEntries) {
       try {
@@ -137,11 +135,9 @@ public class ExmlFacetImporter extends FacetImporter<ExmlFacet, ExmlFacetConfigu
         } else {
           String zipFileName = ExmlCompiler.findDependentModuleZipFileName(orderEntry);
           if (zipFileName != null) {
-            ZipFile zipFile = new ZipFile(zipFileName);
             String zipFilePath = zipFileName + "!/";
-            Set<ZipEntry> xsdZipEntries = ExmlCompiler.findXsdZipEntries(zipFile);
-            for (ZipEntry xsdZipEntry : xsdZipEntries) {
-              mapXsdResource(resourceMap, zipFilePath, xsdZipEntry.getName());
+            for (String xsdEntryName : jarXsdEntries.getXsdEntryNames(zipFileName)) {
+              mapXsdResource(resourceMap, zipFilePath, xsdEntryName);
             }
           }
         }
@@ -149,6 +145,7 @@ public class ExmlFacetImporter extends FacetImporter<ExmlFacet, ExmlFacetConfigu
         // ignore
       }
     }
+    jarXsdEntries.save();
     ExmlcConfigurationBean exmlConfig = ExmlCompiler.getExmlConfig(module);
     mapXsdResources(resourceMap, exmlConfig);
     return resourceMap;
@@ -16,18 +16,13 @@ package net.jangaroo.ide.idea.exml;
 
 import com.intellij.idea.IdeaLogger;
 import com.intellij.lang.javascript.JavaScriptSupportLoader;
-import com.intellij.lang.javascript.psi.JSFunction;
-import com.intellij.lang.javascript.psi.JSParameter;
-import com.intellij.lang.javascript.psi.JSVariable;
-import com.intellij.lang.javascript.psi.ecmal4.JSClass;
-import com.intellij.lang.javascript.psi.resolve.JSResolveUtil;
-import com.intellij.lang.javascript.psi.resolve.ResolveProcessor;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ModuleRootManager;
 import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -37,7 +32,10 @@ import com.intellij.psi.LiteralTextEscaper;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiLanguageInjectionHost;
-import com.intellij.psi.ResolveState;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
 import com.intellij.psi.xml.XmlAttribute;
 import com.intellij.psi.xml.XmlAttributeValue;
 import com.intellij.psi.xml.XmlFile;
@@ -46,15 +44,17 @@ import com.intellij.psi.xml.XmlText;
 import com.intellij.xml.XmlElementDescriptor;
 import net.jangaroo.exml.api.Exmlc;
 import net.jangaroo.exml.utils.ExmlUtils;
-import net.jangaroo.ide.idea.AbstractCompiler;
+import net.jangaroo.ide.idea.JavaScriptModificationTracker;
 import net.jangaroo.utils.AS3Type;
 import net.jangaroo.utils.CompilerUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -62,6 +62,8 @@ import java.util.Set;
  */
 public class ExmlLanguageInjector implements LanguageInjector {
 
+  private static final Key<CachedValue<Preamble>> PREAMBLE_KEY = Key.create("jangaroo.exmlPreamble");
+
   static String getModuleRelativePath(Project project, VirtualFile file) {
     final Module module = getModuleForFile(project, file);
     if (module != null) {
@@ -131,16 +133,12 @@ public class ExmlLanguageInjector implements LanguageInjector {
       IdeaLogger.getInstance(this.getClass()).warn("No config class package set in module " + module.getName() + ", EXML AS3 language injection cancelled.");
       return;
     }
-    XmlTag exmlComponentTag = ((XmlFile)attributeValue.getContainingFile()).getRootTag();
-    if (exmlComponentTag != null) {
-
-      // find relative path to source root to determine package name:
-      VirtualFile packageDir = exmlFile.getParent();
-      String packageName = packageDir == null ? "" : getModuleRelativePath(module.getProject(), packageDir);
+    Preamble preamble = getPreamble((XmlFile)attributeValue.getContainingFile(), exmlFile, module);
+    if (preamble != null) {
       String className = exmlFile.getNameWithoutExtension();
 
       StringBuilder code = new StringBuilder();
-      code.append(String.format("package %s {\n", packageName));
+      code.append(String.format("package %s {\n", preamble.packageName));
 
       String text;
       if (attributeValue instanceof XmlAttributeValue) {
@@ -149,16 +147,15 @@ public class ExmlLanguageInjector implements LanguageInjector {
         text = getRelevantText(attributeValue);
       }
       boolean isCodeExpression = ExmlUtils.isCodeExpression(text);
-      String superClassName = isCodeExpression || attributeValue instanceof XmlText ? findSuperClass(exmlComponentTag) : null;
+      String superClassName = isCodeExpression || attributeValue instanceof XmlText ? preamble.superClassName : null;
 
-      // find and append imports:
-      Set<String> imports = findImports(exmlComponentTag);
-      if (superClassName != null) {
-        imports.add(superClassName);
-      }
-      for (String importName : imports) {
+      // append imports:
+      for (String importName : preamble.imports) {
         code.append(String.format("import %s;\n", importName));
       }
+      if (superClassName != null && !preamble.imports.contains(superClassName)) {
+        code.append(String.format("import %s;\n", superClassName));
+      }
 
       code.append(String.format("public class %s", className));
 
@@ -187,12 +184,12 @@ public class ExmlLanguageInjector implements LanguageInjector {
       }
 
       if (codePrefix == null) {
-        codePrefix = renderDeclarations(exmlComponentTag, code, xmlTag, xmlAttribute,
+        codePrefix = renderDeclarations(preamble, code, xmlTag, xmlAttribute,
           Exmlc.EXML_CONSTANT_NODE_NAME, "public static const");
       }
       code.append(String.format("public function %s(config:%s = null){\n", className, configClassName));
       if (codePrefix == null) {
-        codePrefix = renderDeclarations(exmlComponentTag, code, xmlTag, xmlAttribute,
+        codePrefix = renderDeclarations(preamble, code, xmlTag, xmlAttribute,
           Exmlc.EXML_VAR_NODE_NAME, "var");
       }
       if (codePrefix == null) {
@@ -225,46 +222,14 @@ public class ExmlLanguageInjector implements LanguageInjector {
         if (xmlTag != null) {
           String configPackageName = ExmlUtils.parsePackageFromNamespace(xmlTag.getNamespace());
           if (configPackageName != null) {
-            attributeConfigClassName = CompilerUtils.qName(configPackageName, xmlTag.getLocalName());
+            ConfigClassCache configClassCache = ConfigClassCache.getInstance(module.getProject());
             // since EXML update, this may be a target class, so try to find the reference to the config class:
-            JSClass asClass = AbstractCompiler.getASClass(module.getProject(), attributeConfigClassName);
-            if (asClass != null) {
-              JSFunction asConstructor = asClass.getConstructor();
-              if (asConstructor != null) {
-                JSParameter[] parameters = asConstructor.getParameterList().getParameters();
-                if (parameters.length > 0 & "config".equals(parameters[0].getName())) {
-                  String configClassNameCandidate = parameters[0].getType().getResolvedTypeText();
-                  if (!"Object".equals(configClassNameCandidate)) {
-                    attributeConfigClassName = configClassNameCandidate;
-                    asClass = AbstractCompiler.getASClass(module.getProject(), attributeConfigClassName);
-                  }
-                }
-              }
-            }
-            if (attributeValue instanceof XmlText && asClass != null) {
-              // check whether type of config attribute is "Array", then disable type check as Arrays can hold anything:
-              // find declaration of "attributeName" get or set method:
-              ResolveProcessor propertyResolveProcessor = new ResolveProcessor(attributeName);
-              propertyResolveProcessor.setToProcessHierarchy(true);
-              propertyResolveProcessor.setToProcessMembers(true);
-              if (!asClass.processDeclarations(propertyResolveProcessor, ResolveState.initial(), asClass, asClass)) {
-                PsiElement result = propertyResolveProcessor.getResult();
-                final String propertyType;
-                if (result instanceof JSFunction) {
-                  JSFunction method = (JSFunction)result;
-                  propertyType = method.isSetProperty() ? JSResolveUtil.getTypeFromSetAccessor(method)
-                    : method.getReturnTypeString();
-                } else if (result instanceof JSVariable) {
-                  propertyType = ((JSVariable)result).getTypeString();
-                } else {
-                  propertyType = null;
-                }
-                if ("Array".equals(propertyType)) {
-                  // found Array-typed property: stop processing and return false!
-                  // disable type check by falling back to Object type:
-                  attributeConfigClassName = "Object";
-                }
-              }
+            attributeConfigClassName = configClassCache.getConfigClassName(
+              CompilerUtils.qName(configPackageName, xmlTag.getLocalName()));
+            // check whether type of config attribute is "Array", then disable type check as Arrays can hold anything:
+            if (attributeValue instanceof XmlText && configClassCache.isArrayProperty(attributeConfigClassName, attributeName)) {
+              // disable type check by falling back to Object type:
+              attributeConfigClassName = "Object";
             }
           }
         }
@@ -296,7 +261,7 @@ public class ExmlLanguageInjector implements LanguageInjector {
     return text;
   }
 
-  private String renderDeclarations(XmlTag exmlComponentTag, StringBuilder code,
+  private String renderDeclarations(Preamble preamble, StringBuilder code,
                                     XmlTag xmlTag, XmlAttribute xmlAttribute,
                                     String nodeName, String declarationPrefix) {
     int editingIndex = 0;
@@ -308,8 +273,8 @@ public class ExmlLanguageInjector implements LanguageInjector {
         editingIndex = 2; // third element in String[]: value
       }
     }
-    // find and append declarations:
-    List<String[]> declarations = findDeclarationsUntil(exmlComponentTag, editingIndex > 0 ? xmlTag : null, nodeName);
+    // append declarations:
+    List<String[]> declarations = preamble.getDeclarationsUntil(nodeName, editingIndex > 0 ? xmlTag : null);
     return renderDeclarations(code, declarations, declarationPrefix, editingIndex);
   }
 
@@ -354,23 +319,90 @@ public class ExmlLanguageInjector implements LanguageInjector {
     return codePrefix;
   }
 
+  /**
+   * The part of the AS3 class skeleton of an EXML file that is the same for all its injection hosts:
+   * package, imports, super class, and all constant and var declarations.
+   */
+  private static class Preamble {
+    private final String packageName;
+    private final Set<String> imports;
+    private final String superClassName;
+    private final Map<String, List<XmlTag>> declarationTagsByNodeName = new HashMap<String, List<XmlTag>>();
+    private final Map<String, List<String[]>> declarationsByNodeName = new HashMap<String, List<String[]>>();
+
+    private Preamble(String packageName, XmlTag exmlComponentTag, String superClassName) {
+      this.packageName = packageName;
+      this.imports = findImports(exmlComponentTag);
+      this.superClassName = superClassName;
+      for (String nodeName : new String[]{Exmlc.EXML_CONSTANT_NODE_NAME, Exmlc.EXML_VAR_NODE_NAME}) {
+        List<XmlTag> declarationTags = new ArrayList<XmlTag>();
+        declarationsByNodeName.put(nodeName, findDeclarations(exmlComponentTag, nodeName, declarationTags));
+        declarationTagsByNodeName.put(nodeName, declarationTags);
+      }
+    }
+
+    /**
+     * All declarations of the given kind, up to and including the given declaration element, if any.
+     */
+    private List<String[]> getDeclarationsUntil(String nodeName, @Nullable XmlTag untilNode) {
+      List<String[]> declarations = declarationsByNodeName.get(nodeName);
+      int untilIndex = untilNode == null ? -1 : declarationTagsByNodeName.get(nodeName).indexOf(untilNode);
+      return untilIndex == -1 ? declarations : declarations.subList(0, untilIndex + 1);
+    }
+  }
+
+  /**
+   * The preamble of the given EXML file, cached until the file or the project's source roots change, or, if the
+   * super class has to be resolved, until any ActionScript declaration or the XSD declaring the component changes.
+   */
+  private static Preamble getPreamble(final XmlFile xmlFile, final VirtualFile exmlFile, final Module module) {
+    CachedValue<Preamble> cachedPreamble = xmlFile.getUserData(PREAMBLE_KEY);
+    if (cachedPreamble == null) {
+      final Project project = module.getProject();
+      cachedPreamble = CachedValuesManager.getManager(project).createCachedValue(new CachedValueProvider<Preamble>() {
+        public Result<Preamble> compute() {
+          XmlTag exmlComponentTag = xmlFile.getRootTag();
+          if (exmlComponentTag == null) {
+            return Result.<Preamble>create(null, xmlFile);
+          }
+          // find relative path to source root to determine package name:
+          VirtualFile packageDir = exmlFile.getParent();
+          String packageName = packageDir == null ? "" : getModuleRelativePath(project, packageDir);
+          String superClassName = exmlComponentTag.getAttributeValue(Exmlc.EXML_BASE_CLASS_ATTRIBUTE);
+          if (superClassName == null) {
+            // the super class is determined by the component element's descriptor, which depends on ActionScript
+            // declarations and on the XSD declaring the element, but not on typing in other EXML files:
+            ComponentXmlElementDescriptorProvider.ComponentXmlElementDescriptor descriptor = findComponentDescriptor(exmlComponentTag);
+            PsiElement declaration = descriptor == null ? null : descriptor.getDeclarationInSchema();
+            // without a declaring XSD, wait for any (re-)generated XSD:
+            Object schemaDependency = declaration == null ? PsiModificationTracker.OUT_OF_CODE_BLOCK_MODIFICATION_COUNT
+              : declaration.getContainingFile();
+            return Result.create(new Preamble(packageName, exmlComponentTag, descriptor == null ? null : descriptor.getTargetClassName()),
+              xmlFile, ProjectRootManager.getInstance(project), JavaScriptModificationTracker.getInstance(project),
+              schemaDependency);
+          }
+          return Result.create(new Preamble(packageName, exmlComponentTag, superClassName),
+            xmlFile, ProjectRootManager.getInstance(project));
+        }
+      }, false);
+      xmlFile.putUserData(PREAMBLE_KEY, cachedPreamble);
+    }
+    return cachedPreamble.getValue();
+  }
+
   private static String flush(StringBuilder sb) {
     String current = sb.toString();
     sb.setLength(0);
     return current;
   }
 
-  private static String findSuperClass(XmlTag exmlComponentTag) {
-    XmlAttribute baseClassAttribute = exmlComponentTag.getAttribute(Exmlc.EXML_BASE_CLASS_ATTRIBUTE);
-    if (baseClassAttribute != null) {
-      return baseClassAttribute.getValue();
-    }
+  private static ComponentXmlElementDescriptorProvider.ComponentXmlElementDescriptor findComponentDescriptor(XmlTag exmlComponentTag) {
     XmlTag[] subTags = exmlComponentTag.getSubTags();
     XmlTag componentTag = findNonExmlNamespaceTag(subTags);
     if (componentTag != null) {
       XmlElementDescriptor descriptor = componentTag.getDescriptor();
       if (descriptor instanceof ComponentXmlElementDescriptorProvider.ComponentXmlElementDescriptor) {
-        return ((ComponentXmlElementDescriptorProvider.ComponentXmlElementDescriptor)descriptor).getTargetClassName();
+        return (ComponentXmlElementDescriptorProvider.ComponentXmlElementDescriptor)descriptor;
       }
     }
     return null;
@@ -425,7 +457,7 @@ public class ExmlLanguageInjector implements LanguageInjector {
     }
   }
 
-  private static List<String[]> findDeclarationsUntil(XmlTag exmlComponentTag, XmlTag untilNode, String nodeName) {
+  private static List<String[]> findDeclarations(XmlTag exmlComponentTag, String nodeName, List<XmlTag> declarationTags) {
     List<String[]> constants = new ArrayList<String[]>();
     for (XmlTag topLevelXmlTag : exmlComponentTag.getSubTags()) {
       if (nodeName.equals(topLevelXmlTag.getLocalName())) {
@@ -450,9 +482,7 @@ public class ExmlLanguageInjector implements LanguageInjector {
           attributeValue,
           description
         });
-        if (topLevelXmlTag.equals(untilNode)) {
-          break;
-        }
+        declarationTags.add(topLevelXmlTag);
       }
     }
     return constants;
@@ -0,0 +1,102 @@
+package net.jangaroo.ide.idea.exml;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import net.jangaroo.jooc.api.Jooc;
+import net.jangaroo.utils.CompilerUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A file-based index from the fully qualified name of each config class to the target class given in its
+ * <code>[ExtConfig(target="...")]</code> annotation. Only ActionScript files that contain such an annotation
+ * are recorded, so that config classes can be mapped to their target classes without resolving any PSI.
+ */
+public class ExtConfigIndex extends FileBasedIndexExtension<String, String> {
+
+  public static final ID<String, String> NAME = ID.create("jangaroo.extConfig.target");
+
+  private static final int VERSION = 1;
+  private static final String EXT_CONFIG_ANNOTATION = "ExtConfig";
+  private static final Pattern PACKAGE_PATTERN = Pattern.compile("\\bpackage\\s+([\\w.]*)\\s*\\{");
+  private static final Pattern EXT_CONFIG_TARGET_PATTERN =
+    Pattern.compile("\\[\\s*" + EXT_CONFIG_ANNOTATION + "\\s*\\([^)\\]]*\\btarget\\s*=\\s*[\"']([\\w.$]+)[\"']");
+
+  /**
+   * The target class of the given config class, or null if the class has no [ExtConfig] annotation.
+   */
+  public static @Nullable String getTargetClassName(Project project, String configClassName) {
+    List<String> targetClassNames = FileBasedIndex.getInstance().getValues(NAME, configClassName,
+      GlobalSearchScope.allScope(project));
+    return targetClassNames.isEmpty() ? null : targetClassNames.get(0);
+  }
+
+  @NotNull
+  @Override
+  public ID<String, String> getName() {
+    return NAME;
+  }
+
+  @NotNull
+  @Override
+  public DataIndexer<String, String, FileContent> getIndexer() {
+    return new DataIndexer<String, String, FileContent>() {
+      @NotNull
+      public Map<String, String> map(FileContent inputData) {
+        CharSequence text = inputData.getContentAsText();
+        Matcher targetMatcher = EXT_CONFIG_TARGET_PATTERN.matcher(text);
+        if (!targetMatcher.find()) {
+          return Collections.emptyMap();
+        }
+        Matcher packageMatcher = PACKAGE_PATTERN.matcher(text);
+        String packageName = packageMatcher.find() ? packageMatcher.group(1) : "";
+        String configClassName = CompilerUtils.qName(packageName, inputData.getFile().getNameWithoutExtension());
+        return Collections.singletonMap(configClassName, targetMatcher.group(1));
+      }
+    };
+  }
+
+  @Override
+  public KeyDescriptor<String> getKeyDescriptor() {
+    return new EnumeratorStringDescriptor();
+  }
+
+  @Override
+  public DataExternalizer<String> getValueExternalizer() {
+    return new EnumeratorStringDescriptor();
+  }
+
+  @Override
+  public FileBasedIndex.InputFilter getInputFilter() {
+    return new FileBasedIndex.InputFilter() {
+      public boolean acceptInput(VirtualFile file) {
+        return file.getName().endsWith(Jooc.AS_SUFFIX);
+      }
+    };
+  }
+
+  @Override
+  public boolean dependsOnFileContent() {
+    return true;
+  }
+
+  @Override
+  public int getVersion() {
+    return VERSION;
+  }
+}
@@ -0,0 +1,170 @@
+package net.jangaroo.ide.idea.exml;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A persistent cache of the names of the XSD files in the root folder of dependency JARs, shared by all
+ * projects. A JAR is identified by its path, size and time stamp, so that as long as a JAR does not change,
+ * it does not have to be opened again.
+ * JARs that no longer exist are dropped when the cache is loaded, and only the most recently used JARs are
+ * kept, so that the cache does not grow with every JAR version ever used.
+ */
+class JarXsdEntries {
+
+  private static final int VERSION = 1;
+  private static final int MAX_ENTRIES = 4096;
+  private static final JarXsdEntries INSTANCE = new JarXsdEntries(
+    new File(new File(PathManager.getSystemPath(), "jangaroo"), "jar-xsd-entries"));
+
+  private static class Entry {
+    private final long size;
+    private final long lastModified;
+    private final List<String> xsdEntryNames;
+
+    private Entry(long size, long lastModified, List<String> xsdEntryNames) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.xsdEntryNames = xsdEntryNames;
+    }
+  }
+
+  private final File file;
+  private Map<String, Entry> entriesByPath = null;
+  private boolean modified = false;
+
+  static JarXsdEntries getInstance() {
+    return INSTANCE;
+  }
+
+  private JarXsdEntries(File file) {
+    this.file = file;
+  }
+
+  /**
+   * The names of all XSD files in the root folder of the given JAR.
+   */
+  synchronized List<String> getXsdEntryNames(String jarFileName) throws IOException {
+    File jarFile = new File(jarFileName);
+    String path = jarFile.getAbsolutePath();
+    long size = jarFile.length();
+    long lastModified = jarFile.lastModified();
+    Entry entry = getEntriesByPath().get(path);
+    if (entry == null || entry.size != size || entry.lastModified != lastModified) {
+      entry = new Entry(size, lastModified, findXsdEntryNames(jarFile));
+      entriesByPath.put(path, entry);
+      modified = true;
+    }
+    return entry.xsdEntryNames;
+  }
+
+  /**
+   * Persist all JARs read since the last save.
+   */
+  synchronized void save() {
+    if (!modified) {
+      return;
+    }
+    try {
+      FileUtil.createParentDirs(file);
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+      try {
+        out.writeInt(VERSION);
+        out.writeInt(entriesByPath.size());
+        for (Map.Entry<String, Entry> pathAndEntry : entriesByPath.entrySet()) {
+          Entry entry = pathAndEntry.getValue();
+          out.writeUTF(pathAndEntry.getKey());
+          out.writeLong(entry.size);
+          out.writeLong(entry.lastModified);
+          out.writeInt(entry.xsdEntryNames.size());
+          for (String xsdEntryName : entry.xsdEntryNames) {
+            out.writeUTF(xsdEntryName);
+          }
+        }
+      } finally {
+        out.close();
+      }
+      modified = false;
+    } catch (IOException e) {
+      Logger.getInstance("JarXsdEntries").warn("Jangaroo: JAR XSD entries could not be saved, deleting " + file.getPath(), e);
+      //noinspection ResultOfMethodCallIgnored
+      file.delete();
+    }
+  }
+
+  private Map<String, Entry> getEntriesByPath() {
+    if (entriesByPath == null) {
+      // access order, so that the least recently used JARs are dropped first, and saved first:
+      entriesByPath = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+          return size() > MAX_ENTRIES;
+        }
+      };
+      if (file.exists()) {
+        try {
+          DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+          try {
+            if (in.readInt() == VERSION) {
+              for (int i = in.readInt(); i > 0; i--) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                List<String> xsdEntryNames = new ArrayList<String>();
+                for (int j = in.readInt(); j > 0; j--) {
+                  xsdEntryNames.add(in.readUTF());
+                }
+                if (new File(path).exists()) {
+                  entriesByPath.put(path, new Entry(size, lastModified, Collections.unmodifiableList(xsdEntryNames)));
+                } else {
+                  modified = true;
+                }
+              }
+            }
+          } finally {
+            in.close();
+          }
+        } catch (IOException e) {
+          entriesByPath.clear();
+        }
+      }
+    }
+    return entriesByPath;
+  }
+
+  private static List<String> findXsdEntryNames(File jarFile) throws IOException {
+    // only reads the JAR's central directory:
+    ZipFile zipFile = new ZipFile(jarFile);
+    try {
+      List<String> result = new ArrayList<String>();
+      Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
+      while (enumeration.hasMoreElements()) {
+        ZipEntry zipEntry = enumeration.nextElement();
+        if (!zipEntry.isDirectory() && zipEntry.getName().indexOf('/') == -1 && zipEntry.getName().endsWith(".xsd")) {
+          result.add(zipEntry.getName());
+        }
+      }
+      return Collections.unmodifiableList(result);
+    } finally {
+      zipFile.close();
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package net.jangaroo.ide.idea.exml;
+
+import com.intellij.openapi.util.io.FileUtil;
+import net.jangaroo.exml.api.Exmlc;
+import net.jangaroo.ide.idea.util.FileDigests;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Persistent digests of the part of each EXML file of one module that ends up in the module's XSD:
+ * the component name, its base class, its top-level component element, and its config attributes with
+ * their types and descriptions. As long as no digest and no EXML configuration setting changes, the XSD does
+ * not have to be re-generated.
+ */
+class XsdSurfaceFingerprints {
+
+  private static final String XSD_PATH_KEY = "xsd";
+  private static final String CONFIGURATION_KEY = "configuration";
+
+  private final Properties digestsByPath = new Properties();
+
+  /**
+   * Load the fingerprints from the given file. If the file does not exist or cannot be read, no fingerprints are known.
+   */
+  static XsdSurfaceFingerprints load(File file) {
+    XsdSurfaceFingerprints xsdSurfaceFingerprints = new XsdSurfaceFingerprints();
+    if (file.exists()) {
+      try {
+        InputStream in = new FileInputStream(file);
+        try {
+          xsdSurfaceFingerprints.digestsByPath.load(in);
+        } finally {
+          in.close();
+        }
+      } catch (IOException e) {
+        xsdSurfaceFingerprints.digestsByPath.clear();
+      }
+    }
+    return xsdSurfaceFingerprints;
+  }
+
+  void save(File file) throws IOException {
+    FileUtil.createParentDirs(file);
+    OutputStream out = new FileOutputStream(file);
+    try {
+      digestsByPath.store(out, null);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * The XSD file generated last time, or null if unknown.
+   */
+  File getXsdFile() {
+    String xsdPath = digestsByPath.getProperty(XSD_PATH_KEY);
+    return xsdPath == null ? null : new File(xsdPath);
+  }
+
+  void setXsdFile(File xsdFile) {
+    digestsByPath.setProperty(XSD_PATH_KEY, xsdFile.getAbsolutePath());
+  }
+
+  /**
+   * Update the fingerprint of the EXML configuration (e.g. config class package, output directories) the XSD
+   * is generated with.
+   * @return whether the configuration changed
+   */
+  boolean updateConfiguration(String configurationFingerprint) {
+    return !configurationFingerprint.equals(digestsByPath.setProperty(CONFIGURATION_KEY, configurationFingerprint));
+  }
+
+  /**
+   * Update the fingerprint of the given (successfully compiled) EXML file.
+   * @return whether the XSD-relevant surface of the EXML file changed
+   */
+  boolean update(File exmlFile) {
+    String digest = computeDigest(exmlFile);
+    if (digest == null) {
+      // cannot tell, so assume the worst, and make sure to re-check next time:
+      digestsByPath.remove(exmlFile.getAbsolutePath());
+      return true;
+    }
+    return !digest.equals(digestsByPath.setProperty(exmlFile.getAbsolutePath(), digest));
+  }
+
+  /**
+   * Forget all EXML files that no longer exist.
+   * @return whether any EXML file has been deleted, so that its element has to be removed from the XSD
+   */
+  boolean removeDeletedFiles() {
+    boolean removed = false;
+    for (Iterator<Map.Entry<Object, Object>> entries = digestsByPath.entrySet().iterator(); entries.hasNext(); ) {
+      Map.Entry<Object, Object> pathAndDigest = entries.next();
+      if (!XSD_PATH_KEY.equals(pathAndDigest.getKey()) && !CONFIGURATION_KEY.equals(pathAndDigest.getKey())
+        && !new File((String)pathAndDigest.getKey()).exists()) {
+        entries.remove();
+        removed = true;
+      }
+    }
+    return removed;
+  }
+
+  private static String computeDigest(File exmlFile) {
+    SurfaceHandler surfaceHandler = new SurfaceHandler();
+    surfaceHandler.surface.append(FileUtil.getNameWithoutExtension(exmlFile));
+    try {
+      SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+      saxParserFactory.setNamespaceAware(true);
+      saxParserFactory.newSAXParser().parse(exmlFile, surfaceHandler);
+    } catch (ParserConfigurationException e) {
+      return null;
+    } catch (SAXException e) {
+      return null;
+    } catch (IOException e) {
+      return null;
+    }
+    return FileDigests.digest(surfaceHandler.getSurface().getBytes());
+  }
+
+  /**
+   * Collects the XSD-relevant parts of an EXML file into a string.
+   */
+  private static class SurfaceHandler extends DefaultHandler {
+    private final StringBuilder surface = new StringBuilder();
+    private String componentElement = null;
+    private int depth = 0;
+    private boolean inDescription = false;
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+      ++depth;
+      boolean isExmlElement = Exmlc.EXML_NAMESPACE_URI.equals(uri);
+      if (depth == 1) {
+        surface.append("|root:").append(uri).append(':').append(localName)
+          .append(",baseClass=").append(attributes.getValue(Exmlc.EXML_BASE_CLASS_ATTRIBUTE));
+      } else if (depth == 2) {
+        if (isExmlElement && Exmlc.EXML_CFG_NODE_NAME.equals(localName)) {
+          surface.append("|cfg:").append(attributes.getValue(Exmlc.EXML_DECLARATION_NAME_ATTRIBUTE))
+            .append(':').append(attributes.getValue(Exmlc.EXML_DECLARATION_TYPE_ATTRIBUTE));
+        } else if (isExmlElement && Exmlc.EXML_DESCRIPTION_NODE_NAME.equals(localName)) {
+          surface.append("|description:");
+          inDescription = true;
+        } else if (!isExmlElement) {
+          componentElement = uri + ':' + localName; // the last non-EXML top-level element is the component
+        }
+      } else if (depth == 3 && isExmlElement && Exmlc.EXML_DESCRIPTION_NODE_NAME.equals(localName)) {
+        surface.append(",description:");
+        inDescription = true;
+      }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+      --depth;
+      inDescription = false;
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+      if (inDescription) {
+        surface.append(ch, start, length);
+      }
+    }
+
+    private String getSurface() {
+      return surface.append("|component:").append(componentElement).toString();
+    }
+  }
+}
@@ -31,8 +31,10 @@ import net.jangaroo.ide.idea.JoocConfigurationBean;
 import net.jangaroo.ide.idea.exml.ExmlCompiler;
 import net.jangaroo.ide.idea.exml.ExmlFacetType;
 import net.jangaroo.ide.idea.exml.ExmlcConfigurationBean;
+import net.jangaroo.ide.idea.util.CompileStatistics;
 import net.jangaroo.ide.idea.util.CompilerLoader;
 import net.jangaroo.ide.idea.util.OutputSinkItem;
+import net.jangaroo.ide.idea.util.StagedOutput;
 import net.jangaroo.jooc.api.Jooc;
 import net.jangaroo.properties.api.Propc;
 import net.jangaroo.utils.FileLocations;
@@ -40,7 +42,10 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import static net.jangaroo.ide.idea.util.IdeaFileUtils.toPath;
 
@@ -79,11 +84,11 @@ public class PropertiesCompiler extends AbstractCompiler implements Intermediate
     return Jooc.AS_SUFFIX;
   }
 
-  private Propc getPropc(String jangarooSdkName, FileLocations compilerConfiguration, CompileContext context) {
-    Propc propc = null;
+  private CompilerLoader.CompilerLease<Propc> getPropc(String jangarooSdkName, List<String> jarFileNames, FileLocations compilerConfiguration, CompileContext context) {
+    CompilerLoader.CompilerLease<Propc> propcLease = null;
     try {
-      propc = CompilerLoader.loadPropc(getJarFileNames(jangarooSdkName));
-      propc.setConfig(compilerConfiguration);
+      propcLease = CompilerLoader.acquirePropc(jarFileNames);
+      propcLease.getCompiler().setConfig(compilerConfiguration);
     } catch (FileNotFoundException e) {
       context.addMessage(CompilerMessageCategory.ERROR, e.getMessage(), null, -1, -1);
     } catch (Exception e) {
@@ -91,34 +96,110 @@ public class PropertiesCompiler extends AbstractCompiler implements Intermediate
         " not correctly set up or not compatible with this Jangaroo IDEA plugin: " + e.getMessage(),
         null, -1, -1);
     }
-    return propc;
+    return propcLease;
   }
 
-  protected OutputSinkItem compile(CompileContext context, Module module, List<VirtualFile> files, boolean forTests) {
-    JoocConfigurationBean joocConfigurationBean = getJoocConfigurationBean(module);
+  @Override
+  protected String getConfigurationFingerprint(Module module, boolean forTests) {
+    String joocConfigurationFingerprint = super.getConfigurationFingerprint(module, forTests);
+    ExmlcConfigurationBean exmlcConfigurationBean = ExmlCompiler.getExmlConfig(module);
+    return joocConfigurationFingerprint == null || exmlcConfigurationBean == null ? null
+      : joocConfigurationFingerprint + ',' + ExmlCompiler.getExmlcConfigurationFingerprint(exmlcConfigurationBean);
+  }
+
+  protected CompileJob prepareCompile(final CompileContext context, final Module module, final List<VirtualFile> files, boolean forTests) {
+    final JoocConfigurationBean joocConfigurationBean = getJoocConfigurationBean(module);
     if (joocConfigurationBean == null) {
       return null;
     }
     ExmlcConfigurationBean exmlcConfigurationBean = ExmlCompiler.getExmlConfig(module);
-    if (exmlcConfigurationBean == null) {
+    if (exmlcConfigurationBean == null || files.isEmpty()) {
       return null;
     }
-    FileLocations exmlConfiguration = new FileLocations();
+    final FileLocations exmlConfiguration = new FileLocations();
     updateFileLocations(exmlConfiguration, module, files, forTests);
     String generatedSourcesDirectory = toPath(exmlcConfigurationBean.getGeneratedSourcesDirectory());
     exmlConfiguration.setOutputDirectory(new File(generatedSourcesDirectory));
-    Propc generator = getPropc(joocConfigurationBean.jangarooSdkName, exmlConfiguration, context);
-
-    OutputSinkItem outputSinkItem = null;
-    for (VirtualFile file : files) {
-      if (outputSinkItem == null) {
-        outputSinkItem = createGeneratedSourcesOutputSinkItem(context, generatedSourcesDirectory);
+    final StagedOutput stagedOutput = createStagedOutput(module, forTests, exmlConfiguration.getOutputDirectory());
+    final List<String> jarFileNames;
+    try {
+      jarFileNames = getJarFileNames(joocConfigurationBean.jangarooSdkName);
+    } catch (IllegalStateException e) {
+      context.addMessage(CompilerMessageCategory.ERROR, e.getMessage(), null, -1, -1);
+      return null;
+    }
+    final OutputSinkItem outputSinkItem = createGeneratedSourcesOutputSinkItem(context, generatedSourcesDirectory);
+    if (outputSinkItem == null) {
+      return null;
+    }
+    return new CompileJob(virtualToIoFiles(files)) {
+      public OutputSinkItem run() {
+        CompileStatistics.Times compileTimes = getCompileTimes(context, module);
+        if (stagedOutput != null) {
+          exmlConfiguration.setOutputDirectory(stagedOutput.clearStagingDirectory());
+        }
+        long classLoadingStart = System.nanoTime();
+        // the configuration is only read, so all workers can share it, but each worker gets its own propc instance:
+        List<CompilerLoader.CompilerLease<Propc>> generatorLeases = new ArrayList<CompilerLoader.CompilerLease<Propc>>();
+        try {
+          List<Propc> generators = new ArrayList<Propc>();
+          for (int i = getGenerationWorkerCount(files.size()); i > 0; i--) {
+            CompilerLoader.CompilerLease<Propc> generatorLease = getPropc(joocConfigurationBean.jangarooSdkName, jarFileNames, exmlConfiguration, context);
+            if (generatorLease == null) {
+              return null;
+            }
+            generatorLeases.add(generatorLease);
+            generators.add(generatorLease.getCompiler());
+          }
+          compileTimes.add(CompileStatistics.Phase.CLASS_LOADING, classLoadingStart);
+          long runStart = System.nanoTime();
+          File[] generatedPropertiesClasses = generate(generators, files);
+          for (int index = 0; index < files.size(); index++) {
+            VirtualFile file = files.get(index);
+            try {
+              File outputFile = addGeneratedFile(outputSinkItem, stagedOutput, file, generatedPropertiesClasses[index]);
+              getLog().info("properties->as: " + file.getUrl() + " -> " + outputFile.getPath());
+            } catch (IOException e) {
+              context.addMessage(CompilerMessageCategory.ERROR, "Generated properties class could not be written: "
+                + e.getMessage(), file.getUrl(), -1, -1);
+              outputSinkItem.addFileToRecompile(file);
+            }
+          }
+          // properties classes are always generated into the main generated sources directory:
+          pipelineGeneratedSources(context, module, false, outputSinkItem);
+          compileTimes.add(CompileStatistics.Phase.RUN, runStart);
+        } finally {
+          for (CompilerLoader.CompilerLease<Propc> generatorLease : generatorLeases) {
+            generatorLease.release();
+          }
+        }
+        return outputSinkItem;
       }
-      File generatedPropertiesClass = generator.generate(VfsUtil.virtualToIoFile(file));
-      getLog().info("properties->as: " + file.getUrl() + " -> " + generatedPropertiesClass.getPath());
-      outputSinkItem.addOutputItem(file, generatedPropertiesClass);
+    };
+  }
+
+  /**
+   * Let each generator generate the properties classes of an equal share of the given files, concurrently.
+   * @return the generated properties class of each file, in the order of the files
+   */
+  private static File[] generate(List<Propc> generators, final List<VirtualFile> files) {
+    final File[] generatedPropertiesClasses = new File[files.size()];
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(generators.size());
+    for (int i = 0; i < generators.size(); i++) {
+      final Propc generator = generators.get(i);
+      final int firstIndex = i;
+      final int step = generators.size();
+      tasks.add(new Callable<Void>() {
+        public Void call() {
+          for (int index = firstIndex; index < files.size(); index += step) {
+            generatedPropertiesClasses[index] = generator.generate(VfsUtil.virtualToIoFile(files.get(index)));
+          }
+          return null;
+        }
+      });
     }
-    return outputSinkItem;
+    invokeAll(tasks);
+    return generatedPropertiesClasses;
   }
 
   protected FacetTypeId<JangarooFacet> getFacetType() {
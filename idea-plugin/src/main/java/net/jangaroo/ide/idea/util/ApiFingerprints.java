@@ -0,0 +1,71 @@
+package net.jangaroo.ide.idea.util;
+
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Persistent digests of the public API of the classes of one module, taken from the API stubs
+ * the Jangaroo compiler generates. As the stubs do not contain any method bodies, a class whose
+ * digest did not change can be treated as unchanged by all classes depending on it.
+ */
+public class ApiFingerprints {
+
+  private final Properties digestsByClassName = new Properties();
+
+  /**
+   * Load the fingerprints from the given file. If the file does not exist or cannot be read, no fingerprints are known.
+   */
+  public static ApiFingerprints load(File file) {
+    ApiFingerprints apiFingerprints = new ApiFingerprints();
+    if (file.exists()) {
+      try {
+        InputStream in = new FileInputStream(file);
+        try {
+          apiFingerprints.digestsByClassName.load(in);
+        } finally {
+          in.close();
+        }
+      } catch (IOException e) {
+        apiFingerprints.digestsByClassName.clear();
+      }
+    }
+    return apiFingerprints;
+  }
+
+  public void save(File file) throws IOException {
+    FileUtil.createParentDirs(file);
+    OutputStream out = new FileOutputStream(file);
+    try {
+      digestsByClassName.store(out, null);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Update the fingerprint of the given class from its (re-)generated API stub.
+   * @return whether the public API of the class changed
+   */
+  public boolean update(String className, File apiStubFile) throws IOException {
+    if (!apiStubFile.exists()) {
+      return remove(className);
+    }
+    String digest = FileDigests.digest(apiStubFile);
+    return !digest.equals(digestsByClassName.setProperty(className, digest));
+  }
+
+  /**
+   * Forget the fingerprint of a deleted class.
+   * @return whether the class had a public API before
+   */
+  public boolean remove(String className) {
+    return digestsByClassName.remove(className) != null;
+  }
+}
@@ -0,0 +1,228 @@
+package net.jangaroo.ide.idea.util;
+
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A persistent graph of the dependencies between the ActionScript classes of one module.
+ * For each compiled source file, the graph records its class name, its imports and all identifiers
+ * it uses. A file depends on a class if it uses the class's simple name and either imports the class
+ * (or its package), is in the same package, or the class is in the top level package.
+ * This over-approximates real dependencies, but never misses one that the compiler could see.
+ */
+public class ClassDependencyGraph {
+
+  private static final int VERSION = 1;
+  private static final Pattern PACKAGE_PATTERN = Pattern.compile("\\bpackage\\s+([\\w.]*)\\s*\\{");
+  private static final Pattern IMPORT_PATTERN = Pattern.compile("\\bimport\\s+([\\w$.]+(?:\\.\\*)?)\\s*;");
+  private static final Pattern IDENTIFIER_PATTERN = Pattern.compile("[A-Za-z_$][\\w$]*");
+
+  private static class ClassEntry {
+    private final String className;
+    private final Set<String> imports;
+    private final Set<String> identifiers;
+
+    private ClassEntry(String className, Set<String> imports, Set<String> identifiers) {
+      this.className = className;
+      this.imports = imports;
+      this.identifiers = identifiers;
+    }
+
+    private String getPackageName() {
+      int lastDot = className.lastIndexOf('.');
+      return lastDot == -1 ? "" : className.substring(0, lastDot);
+    }
+
+    private boolean dependsOn(String otherClassName) {
+      int lastDot = otherClassName.lastIndexOf('.');
+      String otherPackageName = lastDot == -1 ? "" : otherClassName.substring(0, lastDot);
+      String otherSimpleName = otherClassName.substring(lastDot + 1);
+      // classes of the top level package are visible everywhere without any import:
+      return identifiers.contains(otherSimpleName)
+        && (otherPackageName.length() == 0
+        || otherPackageName.equals(getPackageName())
+        || imports.contains(otherClassName)
+        || imports.contains(otherPackageName + ".*"));
+    }
+  }
+
+  private final Map<String, ClassEntry> entriesByPath = new HashMap<String, ClassEntry>();
+
+  /**
+   * Load the graph from the given file. If the file does not exist or cannot be read, the graph is empty.
+   */
+  public static ClassDependencyGraph load(File file) {
+    ClassDependencyGraph graph = new ClassDependencyGraph();
+    if (file.exists()) {
+      try {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+          if (in.readInt() == VERSION) {
+            for (int i = in.readInt(); i > 0; i--) {
+              String path = in.readUTF();
+              String className = in.readUTF();
+              Set<String> imports = readStrings(in);
+              Set<String> identifiers = readStrings(in);
+              graph.entriesByPath.put(path, new ClassEntry(className, imports, identifiers));
+            }
+          }
+        } finally {
+          in.close();
+        }
+      } catch (IOException e) {
+        graph.entriesByPath.clear(); // a broken graph is useless: start from scratch
+      }
+    }
+    return graph;
+  }
+
+  public void save(File file) throws IOException {
+    FileUtil.createParentDirs(file);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      out.writeInt(VERSION);
+      out.writeInt(entriesByPath.size());
+      for (Map.Entry<String, ClassEntry> pathAndEntry : entriesByPath.entrySet()) {
+        ClassEntry entry = pathAndEntry.getValue();
+        out.writeUTF(pathAndEntry.getKey());
+        out.writeUTF(entry.className);
+        writeStrings(out, entry.imports);
+        writeStrings(out, entry.identifiers);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * (Re-)scan the given source file and record its class name and dependencies.
+   */
+  public void update(File sourceFile) throws IOException {
+    String source = FileUtil.loadFile(sourceFile);
+    Matcher packageMatcher = PACKAGE_PATTERN.matcher(source);
+    String packageName = packageMatcher.find() ? packageMatcher.group(1) : "";
+    String simpleName = FileUtil.getNameWithoutExtension(sourceFile);
+    String className = packageName.length() == 0 ? simpleName : packageName + "." + simpleName;
+    Set<String> imports = new HashSet<String>();
+    Matcher importMatcher = IMPORT_PATTERN.matcher(source);
+    while (importMatcher.find()) {
+      imports.add(importMatcher.group(1));
+    }
+    Set<String> identifiers = new HashSet<String>();
+    Matcher identifierMatcher = IDENTIFIER_PATTERN.matcher(source);
+    while (identifierMatcher.find()) {
+      identifiers.add(identifierMatcher.group());
+    }
+    entriesByPath.put(getKey(sourceFile), new ClassEntry(className, imports, identifiers));
+  }
+
+  /**
+   * Forget all source files that no longer exist.
+   * @return the class names of the removed source files
+   */
+  public Set<String> removeDeletedFiles() {
+    Set<String> removedClassNames = new LinkedHashSet<String>();
+    for (Iterator<Map.Entry<String, ClassEntry>> entries = entriesByPath.entrySet().iterator(); entries.hasNext(); ) {
+      Map.Entry<String, ClassEntry> pathAndEntry = entries.next();
+      if (!new File(pathAndEntry.getKey()).exists()) {
+        removedClassNames.add(pathAndEntry.getValue().className);
+        entries.remove();
+      }
+    }
+    return removedClassNames;
+  }
+
+  /**
+   * Whether any of the recorded source files no longer exists.
+   */
+  public boolean hasDeletedFiles() {
+    for (String path : entriesByPath.keySet()) {
+      if (!new File(path).exists()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Determine the class names of the given source files, as far as they are known to this graph.
+   */
+  public Set<String> getClassNames(Collection<File> sourceFiles) {
+    Set<String> classNames = new LinkedHashSet<String>();
+    for (File sourceFile : sourceFiles) {
+      ClassEntry entry = entriesByPath.get(getKey(sourceFile));
+      if (entry != null) {
+        classNames.add(entry.className);
+      }
+    }
+    return classNames;
+  }
+
+  /**
+   * Find all source files that directly or transitively depend on any of the given classes.
+   */
+  public Set<File> findDependentFiles(Set<String> changedClassNames) {
+    Set<File> dependentFiles = new LinkedHashSet<File>();
+    Set<String> affectedClassNames = new HashSet<String>(changedClassNames);
+    Set<String> frontier = changedClassNames;
+    while (!frontier.isEmpty()) {
+      Set<String> nextFrontier = new HashSet<String>();
+      for (Map.Entry<String, ClassEntry> pathAndEntry : entriesByPath.entrySet()) {
+        ClassEntry entry = pathAndEntry.getValue();
+        if (!affectedClassNames.contains(entry.className) && dependsOnAny(entry, frontier)) {
+          affectedClassNames.add(entry.className);
+          nextFrontier.add(entry.className);
+          dependentFiles.add(new File(pathAndEntry.getKey()));
+        }
+      }
+      frontier = nextFrontier;
+    }
+    return dependentFiles;
+  }
+
+  private static boolean dependsOnAny(ClassEntry entry, Set<String> classNames) {
+    for (String className : classNames) {
+      if (entry.dependsOn(className)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String getKey(File sourceFile) {
+    return sourceFile.getAbsolutePath();
+  }
+
+  private static Set<String> readStrings(DataInputStream in) throws IOException {
+    int size = in.readInt();
+    Set<String> strings = new HashSet<String>(size);
+    for (int i = 0; i < size; i++) {
+      strings.add(in.readUTF());
+    }
+    return strings;
+  }
+
+  private static void writeStrings(DataOutputStream out, Set<String> strings) throws IOException {
+    out.writeInt(strings.size());
+    for (String string : strings) {
+      out.writeUTF(string);
+    }
+  }
+}
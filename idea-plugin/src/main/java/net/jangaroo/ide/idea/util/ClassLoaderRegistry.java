@@ -0,0 +1,321 @@
+package net.jangaroo.ide.idea.util;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded registry of class loaders. Least recently used class loaders are evicted when there are more than
+ * the maximum number of class loaders, and class loaders that have not been used for the maximum idle time are
+ * evicted, too. Class loaders in use are never evicted.
+ * Class loaders are handed out as {@link Lease}s. An evicted class loader is closed (if the JRE supports closing
+ * it) as soon as its last lease is released, which releases its open JAR files and allows its classes to be
+ * unloaded. Until then, compilers loaded by it keep working.
+ * Creating a class loader only locks its key, so that concurrent compilations using other class loaders never
+ * wait for each other.
+ */
+public class ClassLoaderRegistry<K> {
+
+  /**
+   * Creates the class loader for a key on a registry miss.
+   */
+  public interface Factory {
+    ClassLoader create() throws FileNotFoundException;
+  }
+
+  /**
+   * A snapshot of the registry's usage counters.
+   */
+  public static class Statistics {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int liveClassLoaders;
+    private final long estimatedSize;
+
+    private Statistics(long hits, long misses, long evictions, int liveClassLoaders, long estimatedSize) {
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.liveClassLoaders = liveClassLoaders;
+      this.estimatedSize = estimatedSize;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    public long getEvictions() {
+      return evictions;
+    }
+
+    public int getLiveClassLoaders() {
+      return liveClassLoaders;
+    }
+
+    /**
+     * A rough estimate of the metaspace / perm gen used by all live class loaders, based on the size of
+     * their JARs.
+     */
+    public long getEstimatedSize() {
+      return estimatedSize;
+    }
+
+    @Override
+    public String toString() {
+      return "hits: " + hits + ", misses: " + misses + ", evictions: " + evictions
+        + ", live class loaders: " + liveClassLoaders + ", estimated size: " + (estimatedSize / 1024) + " KB";
+    }
+  }
+
+  /**
+   * The right to use a class loader until this lease is released. Release every lease exactly once; further
+   * calls are ignored.
+   */
+  public static class Lease {
+    private final ClassLoaderRegistry<?> registry;
+    private final Entry entry;
+    private final ClassLoader classLoader;
+    private boolean released;
+
+    private Lease(ClassLoaderRegistry<?> registry, Entry entry, ClassLoader classLoader) {
+      this.registry = registry;
+      this.entry = entry;
+      this.classLoader = classLoader;
+    }
+
+    public ClassLoader getClassLoader() {
+      return classLoader;
+    }
+
+    public void release() {
+      synchronized (this) {
+        if (released) {
+          return;
+        }
+        released = true;
+      }
+      boolean close;
+      synchronized (entry) {
+        --entry.leases;
+        entry.lastUsed = System.currentTimeMillis();
+        close = entry.evicted && entry.leases == 0;
+      }
+      if (close) {
+        close(entry);
+      } else {
+        registry.evict(entry);
+      }
+    }
+  }
+
+  private static class Entry {
+    private volatile boolean evicted;
+    private volatile ClassLoader classLoader;
+    private volatile long lastUsed;
+    private long estimatedSize;
+    private int leases;
+    private Lease dependency;
+  }
+
+  private final int maxClassLoaders;
+  private final long maxIdleMillis;
+  private final ConcurrentMap<K, Entry> entriesByKey = new ConcurrentHashMap<K, Entry>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public ClassLoaderRegistry(int maxClassLoaders, long maxIdleMillis) {
+    this.maxClassLoaders = maxClassLoaders;
+    this.maxIdleMillis = maxIdleMillis;
+  }
+
+  /**
+   * Look up the class loader for the given key, creating it with the given factory if it is not registered,
+   * and lease it.
+   * @param estimatedSize the estimated memory footprint of the class loader, only used for statistics
+   * @param dependency a lease on a class loader the created class loader depends on (usually its parent), which
+   *   is kept until the created class loader is closed; if no class loader is created, it is released right away
+   */
+  public Lease acquire(K key, long estimatedSize, Factory factory, Lease dependency) throws FileNotFoundException {
+    boolean dependencyTaken = false;
+    try {
+      while (true) {
+        Entry entry = entriesByKey.get(key);
+        if (entry == null) {
+          Entry newEntry = new Entry();
+          entry = entriesByKey.putIfAbsent(key, newEntry);
+          if (entry == null) {
+            entry = newEntry;
+          }
+        }
+        ClassLoader classLoader;
+        boolean created = false;
+        synchronized (entry) {
+          if (entry.evicted) {
+            continue; // lost a race against eviction: look up again
+          }
+          classLoader = entry.classLoader;
+          if (classLoader == null) {
+            try {
+              classLoader = factory.create();
+            } catch (FileNotFoundException e) {
+              entry.evicted = true;
+              entriesByKey.remove(key, entry);
+              throw e;
+            }
+            entry.classLoader = classLoader;
+            entry.estimatedSize = estimatedSize;
+            entry.dependency = dependency;
+            dependencyTaken = true;
+            created = true;
+          }
+          ++entry.leases;
+          entry.lastUsed = System.currentTimeMillis();
+        }
+        if (created) {
+          misses.incrementAndGet();
+        } else {
+          hits.incrementAndGet();
+        }
+        evict(entry);
+        if (created) {
+          getLog().info("Jangaroo compiler class loader created (" + getStatistics() + ")");
+        }
+        return new Lease(this, entry, classLoader);
+      }
+    } finally {
+      if (dependency != null && !dependencyTaken) {
+        dependency.release();
+      }
+    }
+  }
+
+  public Collection<K> getKeys() {
+    return new ArrayList<K>(entriesByKey.keySet());
+  }
+
+  /**
+   * Evict the class loader of the given key, if any. It is closed as soon as it is no longer leased.
+   */
+  public void remove(K key) {
+    Entry entry = entriesByKey.remove(key);
+    if (entry != null) {
+      markEvicted(entry);
+    }
+  }
+
+  public Statistics getStatistics() {
+    int liveClassLoaders = 0;
+    long estimatedSize = 0;
+    for (Entry entry : entriesByKey.values()) {
+      if (entry.classLoader != null) {
+        ++liveClassLoaders;
+        estimatedSize += entry.estimatedSize;
+      }
+    }
+    return new Statistics(hits.get(), misses.get(), evictions.get(), liveClassLoaders, estimatedSize);
+  }
+
+  /**
+   * Evict all idle class loaders and, if there are still too many, the least recently used ones.
+   * This is done whenever a class loader is acquired or released, so that idle class loaders do not
+   * outlive their maximum idle time just because no other class loader is created.
+   * The given, just used entry and all leased entries are never evicted.
+   */
+  private synchronized void evict(Entry usedEntry) {
+    long now = System.currentTimeMillis();
+    List<Map.Entry<K, Entry>> candidates = new ArrayList<Map.Entry<K, Entry>>();
+    for (Map.Entry<K, Entry> keyAndEntry : entriesByKey.entrySet()) {
+      Entry entry = keyAndEntry.getValue();
+      if (entry != usedEntry && entry.classLoader != null && !isLeased(entry)) {
+        if (now - entry.lastUsed > maxIdleMillis) {
+          evict(keyAndEntry.getKey(), entry);
+        } else {
+          candidates.add(keyAndEntry);
+        }
+      }
+    }
+    int excess = candidates.size() + 1 - maxClassLoaders;
+    if (excess > 0) {
+      Collections.sort(candidates, new Comparator<Map.Entry<K, Entry>>() {
+        public int compare(Map.Entry<K, Entry> entry1, Map.Entry<K, Entry> entry2) {
+          long lastUsed1 = entry1.getValue().lastUsed;
+          long lastUsed2 = entry2.getValue().lastUsed;
+          return lastUsed1 < lastUsed2 ? -1 : lastUsed1 == lastUsed2 ? 0 : 1;
+        }
+      });
+      for (Map.Entry<K, Entry> keyAndEntry : candidates.subList(0, excess)) {
+        evict(keyAndEntry.getKey(), keyAndEntry.getValue());
+      }
+    }
+  }
+
+  private static boolean isLeased(Entry entry) {
+    synchronized (entry) {
+      return entry.leases > 0;
+    }
+  }
+
+  private void evict(K key, Entry entry) {
+    if (entriesByKey.remove(key, entry)) {
+      evictions.incrementAndGet();
+      markEvicted(entry);
+    }
+  }
+
+  /**
+   * Mark the given entry as evicted and close it right away, if it is not leased.
+   */
+  private static void markEvicted(Entry entry) {
+    boolean close;
+    synchronized (entry) {
+      entry.evicted = true;
+      close = entry.leases == 0;
+    }
+    if (close) {
+      close(entry);
+    }
+  }
+
+  private static void close(Entry entry) {
+    ClassLoader classLoader;
+    Lease dependency;
+    synchronized (entry) {
+      classLoader = entry.classLoader;
+      dependency = entry.dependency;
+      entry.classLoader = null;
+      entry.dependency = null;
+    }
+    if (dependency != null) {
+      dependency.release();
+    }
+    // URLClassLoader is only Closeable as of Java 7:
+    if (classLoader instanceof Closeable) {
+      try {
+        ((Closeable)classLoader).close();
+      } catch (IOException e) {
+        getLog().warn("Jangaroo: evicted compiler class loader could not be closed.", e);
+      }
+    }
+  }
+
+  private static Logger getLog() {
+    return Logger.getInstance("ClassLoaderRegistry");
+  }
+}
@@ -0,0 +1,231 @@
+package net.jangaroo.ide.idea.util;
+
+import com.intellij.openapi.compiler.CompileContext;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the time spent in the phases of all Jangaroo compilations of one make, per compiler and module.
+ * Instances are kept in the {@link CompileContext}, so all compilers and all (parallel) module compilations
+ * of one make add to the same statistics.
+ */
+public class CompileStatistics {
+
+  private static final Key<CompileStatistics> COMPILE_STATISTICS = Key.create("jangaroo.compileStatistics");
+
+  public enum Phase {
+    CONFIGURATION("configuration", "configuration"),
+    CLASS_LOADING("class loading", "classLoading"),
+    RUN("run", "run"),
+    OUTPUT_MAPPING("output mapping", "outputMapping"),
+    REFRESH("VFS refresh", "refresh");
+
+    private final String displayName;
+    private final String jsonName;
+
+    Phase(String displayName, String jsonName) {
+      this.displayName = displayName;
+      this.jsonName = jsonName;
+    }
+
+    public String getDisplayName() {
+      return displayName;
+    }
+  }
+
+  /**
+   * The phase times of one compiler for one module (or, for {@link Phase#REFRESH}, for all modules).
+   */
+  public class Times {
+    private final Map<Phase, Long> nanosByPhase = new EnumMap<Phase, Long>(Phase.class);
+
+    /**
+     * Add the time elapsed since the given {@link System#nanoTime()} to the given phase.
+     */
+    public void add(Phase phase, long startNanos) {
+      long nanos = System.nanoTime() - startNanos;
+      synchronized (CompileStatistics.this) {
+        Long sum = nanosByPhase.get(phase);
+        nanosByPhase.put(phase, sum == null ? nanos : sum + nanos);
+      }
+    }
+  }
+
+  private final long startTime = System.currentTimeMillis();
+  private final Map<String, Map<String, Times>> timesByModuleByCompiler = new LinkedHashMap<String, Map<String, Times>>();
+
+  /**
+   * The statistics of the given make, or null if no Jangaroo compiler has run in it.
+   */
+  public static @Nullable CompileStatistics findInstance(CompileContext context) {
+    synchronized (COMPILE_STATISTICS) {
+      return context.getUserData(COMPILE_STATISTICS);
+    }
+  }
+
+  public static CompileStatistics getInstance(CompileContext context) {
+    synchronized (COMPILE_STATISTICS) {
+      CompileStatistics compileStatistics = context.getUserData(COMPILE_STATISTICS);
+      if (compileStatistics == null) {
+        compileStatistics = new CompileStatistics();
+        context.putUserData(COMPILE_STATISTICS, compileStatistics);
+      }
+      return compileStatistics;
+    }
+  }
+
+  /**
+   * @param moduleName the module name, or null for times that cannot be attributed to a single module
+   */
+  public synchronized Times getTimes(String compiler, String moduleName) {
+    Map<String, Times> timesByModule = timesByModuleByCompiler.get(compiler);
+    if (timesByModule == null) {
+      timesByModule = new LinkedHashMap<String, Times>();
+      timesByModuleByCompiler.put(compiler, timesByModule);
+    }
+    Times times = timesByModule.get(moduleName);
+    if (times == null) {
+      times = new Times();
+      timesByModule.put(moduleName, times);
+    }
+    return times;
+  }
+
+  public synchronized Collection<String> getCompilers() {
+    return new ArrayList<String>(timesByModuleByCompiler.keySet());
+  }
+
+  /**
+   * The names of all modules the given compiler has compiled in this make.
+   */
+  public synchronized Collection<String> getModuleNames(String compiler) {
+    Map<String, Times> timesByModule = timesByModuleByCompiler.get(compiler);
+    List<String> moduleNames = new ArrayList<String>();
+    if (timesByModule != null) {
+      for (String moduleName : timesByModule.keySet()) {
+        if (moduleName != null) {
+          moduleNames.add(moduleName);
+        }
+      }
+    }
+    return moduleNames;
+  }
+
+  /**
+   * A human-readable summary of the given compiler's phase times for the given module.
+   */
+  public synchronized String getSummary(String compiler, String moduleName) {
+    Map<String, Times> timesByModule = timesByModuleByCompiler.get(compiler);
+    Times times = timesByModule == null ? null : timesByModule.get(moduleName);
+    if (times == null || times.nanosByPhase.isEmpty()) {
+      return null;
+    }
+    return formatSummary(compiler + " [" + moduleName + "]", times.nanosByPhase);
+  }
+
+  /**
+   * A human-readable summary of the given compiler's phase times, summed up over all modules.
+   */
+  public synchronized String getTotalSummary(String compiler) {
+    Map<Phase, Long> totalNanosByPhase = getTotalNanosByPhase(compiler);
+    return totalNanosByPhase.isEmpty() ? null : formatSummary(compiler + " (total)", totalNanosByPhase);
+  }
+
+  private Map<Phase, Long> getTotalNanosByPhase(String compiler) {
+    Map<Phase, Long> totalNanosByPhase = new EnumMap<Phase, Long>(Phase.class);
+    Map<String, Times> timesByModule = timesByModuleByCompiler.get(compiler);
+    if (timesByModule != null) {
+      for (Times times : timesByModule.values()) {
+        for (Map.Entry<Phase, Long> phaseAndNanos : times.nanosByPhase.entrySet()) {
+          Long sum = totalNanosByPhase.get(phaseAndNanos.getKey());
+          totalNanosByPhase.put(phaseAndNanos.getKey(), sum == null ? phaseAndNanos.getValue() : sum + phaseAndNanos.getValue());
+        }
+      }
+    }
+    return totalNanosByPhase;
+  }
+
+  private static String formatSummary(String title, Map<Phase, Long> nanosByPhase) {
+    StringBuilder summary = new StringBuilder(title);
+    String separator = ": ";
+    for (Map.Entry<Phase, Long> phaseAndNanos : nanosByPhase.entrySet()) {
+      summary.append(separator).append(phaseAndNanos.getKey().getDisplayName())
+        .append(' ').append(toMillis(phaseAndNanos.getValue())).append(" ms");
+      separator = ", ";
+    }
+    return summary.toString();
+  }
+
+  /**
+   * Write all phase times collected so far as JSON to the given file, replacing any previous report.
+   */
+  public synchronized void writeJson(File file) throws IOException {
+    FileUtil.createParentDirs(file);
+    Writer out = new FileWriter(file);
+    try {
+      out.write("{\n  \"startTime\": " + startTime + ",\n  \"compilers\": [");
+      String compilerSeparator = "\n";
+      for (Map.Entry<String, Map<String, Times>> compilerAndTimesByModule : timesByModuleByCompiler.entrySet()) {
+        out.write(compilerSeparator + "    {\"compiler\": " + toJsonString(compilerAndTimesByModule.getKey()) + ", \"total\": {");
+        writePhases(out, getTotalNanosByPhase(compilerAndTimesByModule.getKey()), "");
+        out.write("}, \"modules\": [");
+        writeModules(out, compilerAndTimesByModule.getValue().entrySet());
+        out.write("]}");
+        compilerSeparator = ",\n";
+      }
+      out.write("\n  ]\n}\n");
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void writeModules(Writer out, Collection<Map.Entry<String, Times>> moduleTimes) throws IOException {
+    String moduleSeparator = "\n";
+    for (Map.Entry<String, Times> moduleAndTimes : moduleTimes) {
+      out.write(moduleSeparator + "      {\"module\": " + toJsonString(moduleAndTimes.getKey()));
+      writePhases(out, moduleAndTimes.getValue().nanosByPhase, ", ");
+      out.write("}");
+      moduleSeparator = ",\n";
+    }
+  }
+
+  private static void writePhases(Writer out, Map<Phase, Long> nanosByPhase, String separator) throws IOException {
+    for (Map.Entry<Phase, Long> phaseAndNanos : nanosByPhase.entrySet()) {
+      out.write(separator + "\"" + phaseAndNanos.getKey().jsonName + "Millis\": " + toMillis(phaseAndNanos.getValue()));
+      separator = ", ";
+    }
+  }
+
+  private static long toMillis(long nanos) {
+    return nanos / 1000000;
+  }
+
+  private static String toJsonString(String value) {
+    if (value == null) {
+      return "null";
+    }
+    StringBuilder json = new StringBuilder("\"");
+    for (char c : value.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if (c < ' ') {
+        json.append(String.format("\\u%04x", (int)c));
+      } else {
+        json.append(c);
+      }
+    }
+    return json.append('"').toString();
+  }
+}
@@ -6,69 +6,256 @@ import net.jangaroo.properties.api.Propc;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  * Load Jangaroo compilers of a specified version, using a custom class loader.
  */
 public class CompilerLoader {
 
-  private static final Map<List<String>,ClassLoader> CLASS_LOADER_BY_JAR_FILES_CACHE = new HashMap<List<String>, ClassLoader>();
+  /**
+   * Set system property "jangaroo.idea.maxCompilerClassLoaders" to change how many compiler class loaders
+   * (i.e. Jangaroo SDK versions) are kept in memory.
+   */
+  private static final int MAX_CLASS_LOADERS = Integer.getInteger("jangaroo.idea.maxCompilerClassLoaders", 4);
+  /**
+   * Set system property "jangaroo.idea.compilerClassLoaderIdleMinutes" to change after how many minutes an unused
+   * compiler class loader is evicted.
+   */
+  private static final long MAX_IDLE_MILLIS = Long.getLong("jangaroo.idea.compilerClassLoaderIdleMinutes", 30) * 60 * 1000;
 
-  public static Jooc loadJooc(List<String> jarFileNames) throws FileNotFoundException, ClassNotFoundException, InstantiationException, IllegalAccessException {
-    return (Jooc)instantiateClass("net.jangaroo.jooc.Jooc", jarFileNames);
+  private static final ClassLoaderRegistry<List<String>> CLASS_LOADER_REGISTRY =
+    new ClassLoaderRegistry<List<String>>(MAX_CLASS_LOADERS, MAX_IDLE_MILLIS);
+  private static final ClassLoaderRegistry<List<String>> SHARED_PARENT_CLASS_LOADER_REGISTRY =
+    new ClassLoaderRegistry<List<String>>(MAX_CLASS_LOADERS, MAX_IDLE_MILLIS);
+  /**
+   * Jangaroo's own artifacts differ between SDK versions and must not be shared. This includes the
+   * "jar-with-dependencies" artifacts of the Jangaroo SDK download layout.
+   */
+  private static final Pattern JANGAROO_ARTIFACT_PATTERN = Pattern.compile("(jangaroo|exml|properties)-.*\\.jar");
+  private static final Map<String,JarStamp> JAR_STAMP_BY_PATH_CACHE = new HashMap<String, JarStamp>();
+
+  /**
+   * The content digest of a JAR file, valid as long as the JAR's size and time stamp do not change.
+   */
+  private static class JarStamp {
+    private final long size;
+    private final long lastModified;
+    private final String digest;
+
+    private JarStamp(long size, long lastModified, String digest) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.digest = digest;
+    }
+  }
+
+  /**
+   * A compiler instance, which keeps its class loaders from being closed until it is released.
+   * Release it as soon as the compiler run is done, and do not use the compiler afterwards.
+   */
+  public static class CompilerLease<T> {
+    private final T compiler;
+    private final ClassLoaderRegistry.Lease classLoaderLease;
+
+    private CompilerLease(T compiler, ClassLoaderRegistry.Lease classLoaderLease) {
+      this.compiler = compiler;
+      this.classLoaderLease = classLoaderLease;
+    }
+
+    public T getCompiler() {
+      return compiler;
+    }
+
+    public void release() {
+      classLoaderLease.release();
+    }
+  }
+
+  public static CompilerLease<Jooc> acquireJooc(List<String> jarFileNames) throws FileNotFoundException, ClassNotFoundException, InstantiationException, IllegalAccessException {
+    return instantiateClass(Jooc.class, "net.jangaroo.jooc.Jooc", jarFileNames);
+  }
+
+  public static CompilerLease<Exmlc> acquireExmlc(List<String> jarFileNames) throws FileNotFoundException, ClassNotFoundException, InstantiationException, IllegalAccessException {
+    return instantiateClass(Exmlc.class, "net.jangaroo.exml.compiler.Exmlc", jarFileNames);
+  }
+
+  public static CompilerLease<Propc> acquirePropc(List<String> jarFileNames) throws FileNotFoundException, ClassNotFoundException, InstantiationException, IllegalAccessException {
+    return instantiateClass(Propc.class, "net.jangaroo.properties.PropertyClassGenerator", jarFileNames);
+  }
+
+  private static <T> CompilerLease<T> instantiateClass(Class<T> apiClass, String mainClassName, List<String> jarFileNames) throws FileNotFoundException, ClassNotFoundException, InstantiationException, IllegalAccessException {
+    ClassLoaderRegistry.Lease classLoaderLease = acquireClassLoader(jarFileNames);
+    boolean instantiated = false;
+    try {
+      Class<?> mainClass = classLoaderLease.getClassLoader().loadClass(mainClassName);
+      CompilerLease<T> compilerLease = new CompilerLease<T>(apiClass.cast(mainClass.newInstance()), classLoaderLease);
+      instantiated = true;
+      return compilerLease;
+    } finally {
+      if (!instantiated) {
+        classLoaderLease.release();
+      }
+    }
+  }
+
+  /**
+   * Class loaders are cached by the paths and content digests of their JARs, so that snapshot SDKs are
+   * reused just like releases, but a rebuilt snapshot JAR with new content gets a fresh class loader.
+   * Only the Jangaroo compiler artifacts themselves are loaded by an SDK-specific class loader. All other
+   * (third-party) JARs of the SDK are loaded by a shared parent class loader, which is reused by all SDKs
+   * with the same dependency JAR contents.
+   */
+  private static ClassLoaderRegistry.Lease acquireClassLoader(List<String> jarFileNames) throws FileNotFoundException {
+    List<String> cacheKey = getJarIdentities(jarFileNames);
+    removeStaleClassLoaders(jarFileNames, cacheKey);
+    final List<String> compilerJarFileNames = new ArrayList<String>();
+    List<String> dependencyJarFileNames = new ArrayList<String>();
+    long estimatedSize = 0;
+    for (String jarFileName : jarFileNames) {
+      if (JANGAROO_ARTIFACT_PATTERN.matcher(new File(jarFileName).getName()).matches()) {
+        compilerJarFileNames.add(jarFileName);
+        estimatedSize += getJarStamp(jarFileName).size;
+      } else {
+        dependencyJarFileNames.add(jarFileName);
+      }
+    }
+    while (true) {
+      // a newly created class loader keeps this lease on its parent for as long as it lives:
+      ClassLoaderRegistry.Lease parentLease = acquireSharedParentClassLoader(dependencyJarFileNames);
+      final ClassLoader parent = parentLease == null ? CompilerLoader.class.getClassLoader() : parentLease.getClassLoader();
+      ClassLoaderRegistry.Lease lease = CLASS_LOADER_REGISTRY.acquire(cacheKey, estimatedSize, new ClassLoaderRegistry.Factory() {
+        public ClassLoader create() throws FileNotFoundException {
+          return createClassLoader(compilerJarFileNames, parent);
+        }
+      }, parentLease);
+      if (lease.getClassLoader().getParent() == parent) {
+        return lease;
+      }
+      // the shared parent has been evicted and re-created in the meantime:
+      lease.release();
+      CLASS_LOADER_REGISTRY.remove(cacheKey);
+    }
+  }
+
+  /**
+   * @return a lease on the shared parent class loader, or null if there are no dependency JARs, so that the
+   *   plugin's class loader is the parent
+   */
+  private static ClassLoaderRegistry.Lease acquireSharedParentClassLoader(final List<String> dependencyJarFileNames) throws FileNotFoundException {
+    if (dependencyJarFileNames.isEmpty()) {
+      return null;
+    }
+    // identical JARs may be located in different places, so only their contents count:
+    List<String> cacheKey = new ArrayList<String>(dependencyJarFileNames.size());
+    long estimatedSize = 0;
+    for (String jarFileName : dependencyJarFileNames) {
+      JarStamp jarStamp = getJarStamp(jarFileName);
+      cacheKey.add(jarStamp.digest);
+      estimatedSize += jarStamp.size;
+    }
+    return SHARED_PARENT_CLASS_LOADER_REGISTRY.acquire(cacheKey, estimatedSize, new ClassLoaderRegistry.Factory() {
+      public ClassLoader create() throws FileNotFoundException {
+        return createClassLoader(dependencyJarFileNames, CompilerLoader.class.getClassLoader());
+      }
+    }, null);
+  }
+
+  /**
+   * After how many milliseconds an unused compiler class loader is evicted.
+   */
+  public static long getMaxIdleMillis() {
+    return MAX_IDLE_MILLIS;
+  }
+
+  public static ClassLoaderRegistry.Statistics getStatistics() {
+    return CLASS_LOADER_REGISTRY.getStatistics();
   }
 
-  public static Exmlc loadExmlc(List<String> jarFileNames) throws FileNotFoundException, ClassNotFoundException, InstantiationException, IllegalAccessException {
-    return (Exmlc)instantiateClass("net.jangaroo.exml.compiler.Exmlc", jarFileNames);
+  public static ClassLoaderRegistry.Statistics getSharedParentStatistics() {
+    return SHARED_PARENT_CLASS_LOADER_REGISTRY.getStatistics();
   }
 
-  public static Propc loadPropc(List<String> jarFileNames) throws FileNotFoundException, ClassNotFoundException, InstantiationException, IllegalAccessException {
-    return (Propc)instantiateClass("net.jangaroo.properties.PropertyClassGenerator", jarFileNames);
+  /**
+   * A fingerprint of the current content of the given JARs, which only changes if any JAR really changes.
+   */
+  public static String getJarsFingerprint(List<String> jarFileNames) throws FileNotFoundException {
+    StringBuilder fingerprint = new StringBuilder();
+    for (String jarIdentity : getJarIdentities(jarFileNames)) {
+      fingerprint.append(jarIdentity).append(File.pathSeparatorChar);
+    }
+    return fingerprint.toString();
   }
 
-  private static Object instantiateClass(String mainClassName, List<String> jarFileNames) throws FileNotFoundException, ClassNotFoundException, InstantiationException, IllegalAccessException {
-    ClassLoader jooClassLoader = getClassLoader(jarFileNames);
-    Class<?> joocClass = jooClassLoader.loadClass(mainClassName);
-    return joocClass.newInstance();
+  private static List<String> getJarIdentities(List<String> jarFileNames) throws FileNotFoundException {
+    List<String> jarIdentities = new ArrayList<String>(jarFileNames.size());
+    for (String jarFileName : jarFileNames) {
+      jarIdentities.add(jarFileName + '#' + getJarStamp(jarFileName).digest);
+    }
+    return jarIdentities;
   }
 
-  private static ClassLoader getClassLoader(List<String> jarFileNames) throws FileNotFoundException {
-    return anyEndsWith(jarFileNames, "-SNAPSHOT.jar")
-      ? createClassLoader(jarFileNames)
-      : getCachedClassLoader(jarFileNames);
+  private static JarStamp getJarStamp(String jarFileName) throws FileNotFoundException {
+    File jarFile = new File(jarFileName);
+    long size = jarFile.length();
+    long lastModified = jarFile.lastModified();
+    synchronized (JAR_STAMP_BY_PATH_CACHE) {
+      JarStamp jarStamp = JAR_STAMP_BY_PATH_CACHE.get(jarFileName);
+      if (jarStamp != null && jarStamp.size == size && jarStamp.lastModified == lastModified) {
+        return jarStamp;
+      }
+    }
+    if (!jarFile.exists()) {
+      throw new FileNotFoundException("JAR file not found: " + jarFile.getAbsolutePath());
+    }
+    String digest;
+    try {
+      digest = FileDigests.digest(jarFile);
+    } catch (IOException e) {
+      // cannot read the JAR, so at least tell apart different versions by size and time stamp:
+      digest = size + "@" + lastModified;
+    }
+    JarStamp jarStamp = new JarStamp(size, lastModified, digest);
+    synchronized (JAR_STAMP_BY_PATH_CACHE) {
+      JAR_STAMP_BY_PATH_CACHE.put(jarFileName, jarStamp);
+    }
+    return jarStamp;
   }
 
-  private static boolean anyEndsWith(List<String> strings, String suffix) {
-    for (String string : strings) {
-      if (string.endsWith(suffix)) {
-        return true;
+  /**
+   * Drop class loaders for the same JAR paths, but outdated JAR contents. They can never be hit again.
+   */
+  private static void removeStaleClassLoaders(List<String> jarFileNames, List<String> currentCacheKey) {
+    for (List<String> cacheKey : CLASS_LOADER_REGISTRY.getKeys()) {
+      if (!cacheKey.equals(currentCacheKey) && getJarFileNames(cacheKey).equals(jarFileNames)) {
+        CLASS_LOADER_REGISTRY.remove(cacheKey);
       }
     }
-    return false;
   }
 
-  private synchronized static ClassLoader getCachedClassLoader(List<String> jarFileNames) throws FileNotFoundException {
-    ClassLoader classLoader = CLASS_LOADER_BY_JAR_FILES_CACHE.get(jarFileNames);
-    if (classLoader == null) {
-      classLoader = createClassLoader(jarFileNames);
-      CLASS_LOADER_BY_JAR_FILES_CACHE.put(jarFileNames, classLoader);
+  private static List<String> getJarFileNames(List<String> jarIdentities) {
+    List<String> jarFileNames = new ArrayList<String>(jarIdentities.size());
+    for (String jarIdentity : jarIdentities) {
+      jarFileNames.add(jarIdentity.substring(0, jarIdentity.lastIndexOf('#')));
     }
-    return classLoader;
+    return jarFileNames;
   }
 
-  private static ClassLoader createClassLoader(List<String> jarFileNames) throws FileNotFoundException {
+  private static ClassLoader createClassLoader(List<String> jarFileNames, ClassLoader parent) throws FileNotFoundException {
     URL[] urls = new URL[jarFileNames.size()];
     for (int i = 0; i < jarFileNames.size(); i++) {
        urls[i] = toURL(jarFileNames.get(i));
       
     }
-    return new URLClassLoader(urls, CompilerLoader.class.getClassLoader());
+    return new URLClassLoader(urls, parent);
   }
 
   private static URL toURL(String jarFileName) throws FileNotFoundException {
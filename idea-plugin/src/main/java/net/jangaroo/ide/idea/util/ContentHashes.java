@@ -0,0 +1,166 @@
+package net.jangaroo.ide.idea.util;
+
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent content digests of compiled source files, the compiler configuration used, and the resulting
+ * output files. Allows to skip source files that are only "dirty" because their time stamp changed.
+ */
+public class ContentHashes {
+
+  private static final int VERSION = 1;
+
+  /**
+   * What is known about the last successful compilation of a source file.
+   */
+  public static class Entry {
+    private final String sourceDigest;
+    private final String configurationFingerprint;
+    private final String outputRootPath;
+    private final Map<String, String> outputDigestsByPath;
+
+    private Entry(String sourceDigest, String configurationFingerprint, String outputRootPath, Map<String, String> outputDigestsByPath) {
+      this.sourceDigest = sourceDigest;
+      this.configurationFingerprint = configurationFingerprint;
+      this.outputRootPath = outputRootPath;
+      this.outputDigestsByPath = outputDigestsByPath;
+    }
+
+    public String getOutputRootPath() {
+      return outputRootPath;
+    }
+
+    public Collection<String> getOutputPaths() {
+      return outputDigestsByPath.keySet();
+    }
+  }
+
+  private final Map<String, Entry> entriesBySourcePath = new HashMap<String, Entry>();
+
+  /**
+   * Load the content hashes from the given file. If the file does not exist or cannot be read, nothing is known.
+   */
+  public static ContentHashes load(File file) {
+    ContentHashes contentHashes = new ContentHashes();
+    if (file.exists()) {
+      try {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+          if (in.readInt() == VERSION) {
+            for (int i = in.readInt(); i > 0; i--) {
+              String sourcePath = in.readUTF();
+              String sourceDigest = in.readUTF();
+              String configurationFingerprint = in.readUTF();
+              String outputRootPath = in.readUTF();
+              Map<String, String> outputDigestsByPath = new LinkedHashMap<String, String>();
+              for (int j = in.readInt(); j > 0; j--) {
+                outputDigestsByPath.put(in.readUTF(), in.readUTF());
+              }
+              contentHashes.entriesBySourcePath.put(sourcePath,
+                new Entry(sourceDigest, configurationFingerprint, outputRootPath, outputDigestsByPath));
+            }
+          }
+        } finally {
+          in.close();
+        }
+      } catch (IOException e) {
+        contentHashes.entriesBySourcePath.clear();
+      }
+    }
+    return contentHashes;
+  }
+
+  public void save(File file) throws IOException {
+    FileUtil.createParentDirs(file);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      out.writeInt(VERSION);
+      out.writeInt(entriesBySourcePath.size());
+      for (Map.Entry<String, Entry> sourcePathAndEntry : entriesBySourcePath.entrySet()) {
+        Entry entry = sourcePathAndEntry.getValue();
+        out.writeUTF(sourcePathAndEntry.getKey());
+        out.writeUTF(entry.sourceDigest);
+        out.writeUTF(entry.configurationFingerprint);
+        out.writeUTF(entry.outputRootPath);
+        out.writeInt(entry.outputDigestsByPath.size());
+        for (Map.Entry<String, String> outputPathAndDigest : entry.outputDigestsByPath.entrySet()) {
+          out.writeUTF(outputPathAndDigest.getKey());
+          out.writeUTF(outputPathAndDigest.getValue());
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Check whether the given source file has the same content as when it was last compiled with the
+   * same configuration, and all its output files are still there, unmodified.
+   * @return the entry describing the still valid output, or null if the source file has to be compiled
+   */
+  public Entry findUnchanged(File sourceFile, String configurationFingerprint) throws IOException {
+    Entry entry = entriesBySourcePath.get(sourceFile.getAbsolutePath());
+    if (entry == null || !entry.configurationFingerprint.equals(configurationFingerprint)
+      || !entry.sourceDigest.equals(FileDigests.digest(sourceFile))) {
+      return null;
+    }
+    for (Map.Entry<String, String> outputPathAndDigest : entry.outputDigestsByPath.entrySet()) {
+      File outputFile = new File(outputPathAndDigest.getKey());
+      if (!outputFile.exists() || !outputPathAndDigest.getValue().equals(FileDigests.digest(outputFile))) {
+        return null;
+      }
+    }
+    return entry;
+  }
+
+  /**
+   * Compute the content digests of the given source files before they are compiled, to be passed to
+   * {@link #update} afterwards. Files that cannot be read are left out.
+   */
+  public static Map<File, String> digest(Collection<File> sourceFiles) {
+    Map<File, String> sourceDigests = new HashMap<File, String>();
+    for (File sourceFile : sourceFiles) {
+      try {
+        sourceDigests.put(sourceFile, FileDigests.digest(sourceFile));
+      } catch (IOException e) {
+        // not recorded, so it is compiled again next time
+      }
+    }
+    return sourceDigests;
+  }
+
+  /**
+   * Record the result of successfully compiling the given source file.
+   * @param sourceDigest the digest of the source file's content that has been compiled, taken before compiling,
+   *   as the file may have been changed again while the compiler was running
+   */
+  public void update(File sourceFile, String sourceDigest, String configurationFingerprint, String outputRootPath,
+                     Collection<File> outputFiles) throws IOException {
+    Map<String, String> outputDigestsByPath = new LinkedHashMap<String, String>();
+    for (File outputFile : outputFiles) {
+      outputDigestsByPath.put(outputFile.getAbsolutePath(), FileDigests.digest(outputFile));
+    }
+    entriesBySourcePath.put(sourceFile.getAbsolutePath(),
+      new Entry(sourceDigest, configurationFingerprint, outputRootPath, outputDigestsByPath));
+  }
+
+  /**
+   * Forget the given source file, so that it is compiled next time.
+   */
+  public void remove(File sourceFile) {
+    entriesBySourcePath.remove(sourceFile.getAbsolutePath());
+  }
+}
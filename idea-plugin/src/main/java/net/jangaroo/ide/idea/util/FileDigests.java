@@ -0,0 +1,53 @@
+package net.jangaroo.ide.idea.util;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Utility methods to compute content digests of files, used to detect whether files really changed.
+ */
+public class FileDigests {
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  public static String digest(File file) throws IOException {
+    MessageDigest messageDigest = createMessageDigest();
+    InputStream in = new BufferedInputStream(new FileInputStream(file));
+    try {
+      byte[] buffer = new byte[8192];
+      for (int count = in.read(buffer); count != -1; count = in.read(buffer)) {
+        messageDigest.update(buffer, 0, count);
+      }
+    } finally {
+      in.close();
+    }
+    return toHex(messageDigest.digest());
+  }
+
+  public static String digest(byte[] content) {
+    return toHex(createMessageDigest().digest(content));
+  }
+
+  private static MessageDigest createMessageDigest() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      // should not happen, every JRE supports MD5:
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+      hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+    }
+    return new String(hex);
+  }
+}
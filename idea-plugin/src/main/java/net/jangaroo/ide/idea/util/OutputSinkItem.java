@@ -5,11 +5,19 @@ import com.intellij.compiler.impl.javaCompiler.OutputItemImpl;
 import com.intellij.openapi.compiler.CompilerMessageCategory;
 import com.intellij.openapi.compiler.TranslatingCompiler;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.RefreshQueue;
+import net.jangaroo.jooc.api.Jooc;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Collects the parameters to {@link TranslatingCompiler.OutputSink#add}.
@@ -20,6 +28,7 @@ public class OutputSinkItem {
   private final Collection<TranslatingCompiler.OutputItem> outputItems = new ArrayList<TranslatingCompiler.OutputItem>();
   private final Collection<File> filesToRefresh = new ArrayList<File>();
   private final Collection<VirtualFile> filesToRecompile = new ArrayList<VirtualFile>();
+  private final Map<File, List<File>> pipelinedOutputFiles = new LinkedHashMap<File, List<File>>();
 
   public OutputSinkItem(String outputRootPath) throws SecurityException {
     this.outputRoot = new File(outputRootPath);
@@ -40,6 +49,14 @@ public class OutputSinkItem {
     addFileToRefresh(outputFile);
   }
 
+  /**
+   * Add an output file that has been re-generated with identical content. It is neither touched nor refreshed,
+   * so that nothing depending on it is considered out-of-date.
+   */
+  public void addUnchangedOutputItem(VirtualFile sourceFile, File outputFile) {
+    outputItems.add(new OutputItemImpl(FileUtil.toSystemIndependentName(outputFile.getPath()), sourceFile));
+  }
+
   public void addFileToRefresh(File file) {
     filesToRefresh.add(file);
   }
@@ -48,13 +65,77 @@ public class OutputSinkItem {
     return filesToRefresh;
   }
 
+  public Collection<TranslatingCompiler.OutputItem> getOutputItems() {
+    return outputItems;
+  }
+
+  /**
+   * Add an output file of a source file that is not (yet) known to the VFS, because it has been generated
+   * in the same make. It cannot be passed to IDEA, but is remembered to skip the source file later.
+   */
+  public void addPipelinedOutputItem(File sourceFile, File outputFile) {
+    List<File> outputFiles = pipelinedOutputFiles.get(sourceFile);
+    if (outputFiles == null) {
+      outputFiles = new ArrayList<File>();
+      pipelinedOutputFiles.put(sourceFile, outputFiles);
+    }
+    outputFiles.add(outputFile);
+    addFileToRefresh(outputFile);
+  }
+
+  public Map<File, List<File>> getPipelinedOutputFiles() {
+    return pipelinedOutputFiles;
+  }
+
   public void addFileToRecompile(VirtualFile file) {
     filesToRecompile.add(file);
   }
 
+  public Collection<VirtualFile> getFilesToRecompile() {
+    return filesToRecompile;
+  }
+
   public void addTo(TranslatingCompiler.OutputSink outputSink) {
-    CompilerUtil.refreshIOFiles(filesToRefresh);
+    addTo(outputSink, false);
+  }
+
+  /**
+   * @param asynchronousRefresh whether to refresh the output files in the background, because no compiler of
+   *   this make reads them through the VFS. Generated ActionScript sources are still refreshed right away, so
+   *   that IDEA marks them dirty and compiles them even if the jooc run they have been handed to is never
+   *   scheduled in this make; jooc skips them if it has already compiled them.
+   */
+  public void addTo(TranslatingCompiler.OutputSink outputSink, boolean asynchronousRefresh) {
+    if (asynchronousRefresh) {
+      List<File> sourcesToRefresh = new ArrayList<File>();
+      List<File> otherFilesToRefresh = new ArrayList<File>();
+      for (File file : filesToRefresh) {
+        (file.getName().endsWith(Jooc.AS_SUFFIX) ? sourcesToRefresh : otherFilesToRefresh).add(file);
+      }
+      CompilerUtil.refreshIOFiles(sourcesToRefresh);
+      refreshInBackground(otherFilesToRefresh);
+    } else {
+      CompilerUtil.refreshIOFiles(filesToRefresh);
+    }
     outputSink.add(getOutputRootPath(), outputItems, filesToRecompile.toArray(new VirtualFile[filesToRecompile.size()]));
   }
 
+  private static void refreshInBackground(Collection<File> files) {
+    // new files are not known to the VFS yet, so refresh their nearest known ancestor directory:
+    LocalFileSystem localFileSystem = LocalFileSystem.getInstance();
+    Set<VirtualFile> virtualFiles = new LinkedHashSet<VirtualFile>();
+    for (File file : files) {
+      VirtualFile virtualFile = localFileSystem.findFileByIoFile(file);
+      for (File ancestor = file.getParentFile(); virtualFile == null && ancestor != null; ancestor = ancestor.getParentFile()) {
+        virtualFile = localFileSystem.findFileByIoFile(ancestor);
+      }
+      if (virtualFile != null) {
+        virtualFiles.add(virtualFile);
+      }
+    }
+    if (!virtualFiles.isEmpty()) {
+      RefreshQueue.getInstance().refresh(true, true, null, virtualFiles.toArray(new VirtualFile[virtualFiles.size()]));
+    }
+  }
+
 }
@@ -0,0 +1,82 @@
+package net.jangaroo.ide.idea.util;
+
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Lets a generator write into a staging directory, and only copies those generated files to the real
+ * output directory whose content actually differs. Identical output files keep their time stamp, so that
+ * they do not trigger any further (re-)compilation.
+ */
+public class StagedOutput {
+
+  private final File stagingDirectory;
+  private final File outputDirectory;
+
+  public StagedOutput(File stagingDirectory, File outputDirectory) {
+    this.stagingDirectory = stagingDirectory;
+    this.outputDirectory = outputDirectory;
+  }
+
+  /**
+   * Start with an empty staging directory.
+   */
+  public File clearStagingDirectory() {
+    FileUtil.delete(stagingDirectory);
+    //noinspection ResultOfMethodCallIgnored
+    stagingDirectory.mkdirs();
+    return stagingDirectory;
+  }
+
+  /**
+   * The location of the given staged file in the real output directory.
+   */
+  public File getOutputFile(File stagedFile) {
+    String relativePath = FileUtil.getRelativePath(stagingDirectory, stagedFile);
+    return relativePath == null ? stagedFile : new File(outputDirectory, relativePath);
+  }
+
+  /**
+   * Copy the given staged file to the real output directory, unless the output file already has the same content.
+   * @return whether the output file changed
+   */
+  public boolean publish(File stagedFile) throws IOException {
+    File outputFile = getOutputFile(stagedFile);
+    if (outputFile.equals(stagedFile)) {
+      return true; // not generated into the staging directory, so it has already been written
+    }
+    boolean changed = !hasSameContent(stagedFile, outputFile);
+    if (changed) {
+      FileUtil.copy(stagedFile, outputFile);
+    }
+    FileUtil.delete(stagedFile);
+    return changed;
+  }
+
+  private static boolean hasSameContent(File file1, File file2) throws IOException {
+    if (!file2.exists() || file1.length() != file2.length()) {
+      return false;
+    }
+    InputStream in1 = new BufferedInputStream(new FileInputStream(file1));
+    try {
+      InputStream in2 = new BufferedInputStream(new FileInputStream(file2));
+      try {
+        for (int b = in1.read(); b != -1; b = in1.read()) {
+          if (b != in2.read()) {
+            return false;
+          }
+        }
+        return in2.read() == -1;
+      } finally {
+        in2.close();
+      }
+    } finally {
+      in1.close();
+    }
+  }
+}